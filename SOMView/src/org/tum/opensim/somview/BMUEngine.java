@@ -0,0 +1,318 @@
+package org.tum.opensim.somview;
+
+/**
+ * Strategy for the distance computations of a SOM: best matching unit search
+ * and the distances between nodes (used for the distance map / umatrix).
+ *
+ * An engine is created for one codebook and may precompute data for it.
+ * Subclasses supply the distance kernel, the scan over the nodes and its
+ * tie breaking (smallest x, then smallest y "coordinate") are shared.
+ * Engines are used by several threads at once and must not keep state per search.
+ */
+public abstract class BMUEngine {
+
+    /**
+     * Lets the codebook compute the distances, works with every codebook
+     */
+    public static final int SCALAR = 0;
+    /**
+     * Unrolled kernel with independent accumulators, for heap double and float codebooks
+     */
+    public static final int LANES = 1;
+    /**
+     * Blocked matrix product against the codebook, for large batches (@see GemmBMUEngine )
+     */
+    public static final int GEMM = 2;
+    /**
+     * k-d tree over the nodes, for large maps (@see KDTreeBMUEngine )
+     */
+    public static final int KDTREE = 3;
+    /**
+     * Skips nodes ruled out by the triangle inequality (@see TriangleBMUEngine )
+     */
+    public static final int TRIANGLE = 4;
+    /**
+     * Approximate search with product quantization (@see ProductQuantizationBMUEngine ),
+     * the BMUs are not always the exact ones
+     */
+    public static final int APPROXIMATE = 5;
+
+    /**
+     * Selects the fastest engine that supports the codebook: the k-d tree for large maps,
+     * otherwise the lane kernel if the codebook is stored in a heap array
+     */
+    public static final int AUTOMATIC = -1;
+
+    /**
+     * Minimal number of vectors per task of a batch projection
+     */
+    private static final int BMU_GRAIN = 64;
+
+    /**
+     * The codebook the distances are computed for
+     */
+    protected final Codebook codebook;
+
+    /**
+     * Number of nodes in x direction of the SOM
+     */
+    protected final int x_dim;
+
+    /**
+     * Constructor
+     * @param codebook the codebook the distances are computed for
+     * @param x_dim number of nodes in x direction of the SOM
+     */
+    protected BMUEngine(Codebook codebook, int x_dim)
+    {
+        this.codebook = codebook;
+        this.x_dim = x_dim;
+    }
+
+    /**
+     * Creates an engine
+     * @param type one of the engine constants
+     * @param codebook the codebook the distances are computed for
+     * @param x_dim number of nodes in x direction of the SOM
+     * @return the engine, the scalar one if the requested type does not support the codebook
+     */
+    public static BMUEngine create(int type, Codebook codebook, int x_dim)
+    {
+        switch (type)
+        {
+            case AUTOMATIC:
+                if (codebook.getNodeCount() >= KDTreeBMUEngine.MIN_NODES)
+                    return new KDTreeBMUEngine(codebook, x_dim);
+                return createLanes(codebook, x_dim);
+            case LANES:
+                return createLanes(codebook, x_dim);
+            case SCALAR:
+                return new ScalarBMUEngine(codebook, x_dim);
+            case GEMM:
+                return new GemmBMUEngine(codebook, x_dim);
+            case KDTREE:
+                return new KDTreeBMUEngine(codebook, x_dim);
+            case TRIANGLE:
+                return new TriangleBMUEngine(codebook, x_dim);
+            case APPROXIMATE:
+                return new ProductQuantizationBMUEngine(codebook, x_dim);
+            default:
+                throw new IllegalArgumentException("Unknown BMU engine " + type);
+        }
+    }
+
+    /**
+     * @return the lane engine, or the scalar one if it does not support the codebook
+     */
+    private static BMUEngine createLanes(Codebook codebook, int x_dim)
+    {
+        if (LaneBMUEngine.supports(codebook))
+            return new LaneBMUEngine(codebook, x_dim);
+        return new ScalarBMUEngine(codebook, x_dim);
+    }
+
+    /**
+     * @return one of the engine constants
+     */
+    public abstract int getType();
+
+    /**
+     * Squared euclidean distance between the vector of a node and another vector,
+     * which may stop adding up components once the sum exceeds a bound
+     * @param node index of the node
+     * @param vector vector of length dim
+     * @param bound distances greater than this are of no interest
+     * @return the squared distance if it is at most bound,
+     *         otherwise some value greater than bound
+     */
+    protected abstract double distanceSquared(int node, double[] vector, double bound);
+
+    /**
+     * Squared euclidean distance between the vectors of two nodes
+     * @param a index of the first node
+     * @param b index of the second node
+     * @return the squared distance
+     */
+    public double distanceSquared(int a, int b)
+    {
+        return codebook.distanceSquared(a, b);
+    }
+
+    /**
+     * Finds the node that matches a vector best
+     * @param vector vector of length dim
+     * @return the BMU
+     */
+    public BestMatchingUnit findBMU(double[] vector)
+    {
+        return scanBMU(vector, null);
+    }
+
+    /**
+     * Finds the best and second best matching unit of a vector,
+     * the distances are only added up as long as they can beat the second best
+     * @param vector vector of length dim
+     * @param index index the result is stored at
+     * @param projection the result the units are stored in
+     */
+    public void findTwoBMUs(double[] vector, int index, BMUProjection projection)
+    {
+        scanTwoBMUs(vector, null, index, projection);
+    }
+
+    /**
+     * Finds the k nodes nearest to a vector
+     * @param vector vector of length dim
+     * @param k number of nodes
+     * @return the min(k, number of nodes) nearest nodes, nearest first
+     */
+    public BestMatchingUnit[] findNearest(double[] vector, int k)
+    {
+        return scanNearest(vector, null, k);
+    }
+
+    /**
+     * Finds the BMU of a vector with missing or weighted components. The precomputed
+     * data of an engine only applies to the plain distance, so all nodes are scanned.
+     * @param vector the prepared vector
+     * @return the BMU by the weighted distance over the components present
+     */
+    BestMatchingUnit findBMU(MaskedVector vector)
+    {
+        return scanBMU(vector.values, vector);
+    }
+
+    /**
+     * Finds the best and second best matching unit of a vector with missing or weighted components
+     * @param vector the prepared vector
+     * @param index index the result is stored at
+     * @param projection the result the units are stored in
+     */
+    void findTwoBMUs(MaskedVector vector, int index, BMUProjection projection)
+    {
+        scanTwoBMUs(vector.values, vector, index, projection);
+    }
+
+    /**
+     * Finds the k nodes nearest to a vector with missing or weighted components
+     * @param vector the prepared vector
+     * @param k number of nodes
+     * @return the min(k, number of nodes) nearest nodes, nearest first
+     */
+    BestMatchingUnit[] findNearest(MaskedVector vector, int k)
+    {
+        return scanNearest(vector.values, vector, k);
+    }
+
+    /**
+     * Distance used by the scans: the one of the engine, or the weighted one of the codebook
+     * if the vector has a mask
+     */
+    private double scanDistance(int node, double[] vector, MaskedVector mask, double bound)
+    {
+        if (mask == null)
+            return distanceSquared(node, vector, bound);
+        return codebook.distanceSquared(node, vector, mask.weights, bound);
+    }
+
+    private BestMatchingUnit scanBMU(double[] vector, MaskedVector mask)
+    {
+        int nodes = codebook.getNodeCount();
+        double mindist = Double.POSITIVE_INFINITY;
+        int best = 0;
+        int bestX = 0;
+        // the nodes are visited in storage order
+        for (int node = 0, x = 0; node < nodes; node++, x++)
+        {
+            if (x == x_dim)
+                x = 0;
+            double dist = scanDistance(node, vector, mask, mindist);
+            if (dist < mindist || (dist == mindist && x < bestX))
+            {
+                mindist = dist;
+                best = node;
+                bestX = x;
+            }
+        }
+        return new BestMatchingUnit(best, bestX, best / x_dim, mindist);
+    }
+
+    private void scanTwoBMUs(double[] vector, MaskedVector mask, int index, BMUProjection projection)
+    {
+        int nodes = codebook.getNodeCount();
+        double mindist = Double.POSITIVE_INFINITY;
+        double seconddist = Double.POSITIVE_INFINITY;
+        int best = 0;
+        int bestX = 0;
+        int second = -1;
+        for (int node = 0, x = 0; node < nodes; node++, x++)
+        {
+            if (x == x_dim)
+                x = 0;
+            double dist = scanDistance(node, vector, mask, seconddist);
+            if (dist < mindist || (dist == mindist && x < bestX))
+            {
+                if (node > 0)
+                {
+                    seconddist = mindist;
+                    second = best;
+                }
+                mindist = dist;
+                best = node;
+                bestX = x;
+            }
+            else if (dist < seconddist || second < 0)
+            {
+                seconddist = dist;
+                second = node;
+            }
+        }
+        projection.set(index, best, Math.sqrt(mindist), second, Math.sqrt(seconddist));
+    }
+
+    private BestMatchingUnit[] scanNearest(double[] vector, MaskedVector mask, int k)
+    {
+        int nodes = codebook.getNodeCount();
+        NearestNodes nearest = new NearestNodes(Math.min(k, nodes), x_dim);
+        for (int node = 0; node < nodes; node++)
+            nearest.offer(node, scanDistance(node, vector, mask, nearest.bound()));
+        return nearest.toArray();
+    }
+
+    /**
+     * Projects a batch of vectors of which some have missing or weighted components,
+     * split across all cores
+     * @param vectors vectors of length dim
+     * @param masks the prepared vectors, null for the vectors the plain distance applies to
+     * @param projection the result the units are stored in
+     */
+    void project(final double[][] vectors, final MaskedVector[] masks, final BMUProjection projection)
+    {
+        ParallelTasks.forRange(vectors.length, BMU_GRAIN, new ParallelTasks.RangeTask<RuntimeException>() {
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++)
+                {
+                    if (masks[i] == null)
+                        findTwoBMUs(vectors[i], i, projection);
+                    else
+                        findTwoBMUs(masks[i], i, projection);
+                }
+            }
+        });
+    }
+
+    /**
+     * Projects a batch of vectors, split across all cores
+     * @param vectors vectors of length dim
+     * @param projection the result the units are stored in
+     */
+    public void project(final double[][] vectors, final BMUProjection projection)
+    {
+        ParallelTasks.forRange(vectors.length, BMU_GRAIN, new ParallelTasks.RangeTask<RuntimeException>() {
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++)
+                    findTwoBMUs(vectors[i], i, projection);
+            }
+        });
+    }
+}
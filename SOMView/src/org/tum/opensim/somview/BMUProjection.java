@@ -0,0 +1,134 @@
+package org.tum.opensim.somview;
+
+/**
+ * Result of projecting a batch of value vectors onto a SOM (@see SOMMap.getBMUs ):
+ * for every vector the best matching unit, its distance to the vector (quantization error)
+ * and the second best matching unit.
+ * Units are given as node indices in the codebook, @see SOMMap.getNodeIndex
+ */
+public class BMUProjection {
+
+    private final int x_dim;
+    private final int[] bmus;
+    private final double[] quantizationErrors;
+    private final int[] secondBmus;
+    private final double[] secondDistances;
+
+    /**
+     * Creates an empty projection for a number of vectors
+     * @param size number of vectors
+     * @param x_dim number of nodes in x direction of the SOM
+     */
+    BMUProjection(int size, int x_dim)
+    {
+        this.x_dim = x_dim;
+        bmus = new int[size];
+        quantizationErrors = new double[size];
+        secondBmus = new int[size];
+        secondDistances = new double[size];
+    }
+
+    /**
+     * Stores the result for one vector
+     */
+    void set(int index, int bmu, double distance, int secondBmu, double secondDistance)
+    {
+        bmus[index] = bmu;
+        quantizationErrors[index] = distance;
+        secondBmus[index] = secondBmu;
+        secondDistances[index] = secondDistance;
+    }
+
+    /**
+     * @return the number of vectors
+     */
+    public int size() {
+        return bmus.length;
+    }
+
+    /**
+     * @param index index of the vector
+     * @return node index of the best matching unit
+     */
+    public int getBMU(int index) {
+        return bmus[index];
+    }
+
+    /**
+     * @param index index of the vector
+     * @return x "coordinate" of the best matching unit
+     */
+    public int getX(int index) {
+        return bmus[index] % x_dim;
+    }
+
+    /**
+     * @param index index of the vector
+     * @return y "coordinate" of the best matching unit
+     */
+    public int getY(int index) {
+        return bmus[index] / x_dim;
+    }
+
+    /**
+     * @param index index of the vector
+     * @return euclidean distance between the vector and its best matching unit
+     */
+    public double getQuantizationError(int index) {
+        return quantizationErrors[index];
+    }
+
+    /**
+     * @param index index of the vector
+     * @return node index of the second best matching unit, -1 if the SOM has a single node
+     */
+    public int getSecondBMU(int index) {
+        return secondBmus[index];
+    }
+
+    /**
+     * @param index index of the vector
+     * @return euclidean distance between the vector and its second best matching unit
+     */
+    public double getSecondDistance(int index) {
+        return secondDistances[index];
+    }
+
+    /**
+     * Direct access to the node indices of the best matching units
+     * @return the array, do not modify
+     */
+    public int[] getBMUs() {
+        return bmus;
+    }
+
+    /**
+     * Direct access to the quantization errors
+     * @return the array, do not modify
+     */
+    public double[] getQuantizationErrors() {
+        return quantizationErrors;
+    }
+
+    /**
+     * Direct access to the node indices of the second best matching units
+     * @return the array, do not modify
+     */
+    public int[] getSecondBMUs() {
+        return secondBmus;
+    }
+
+    /**
+     * Mean quantization error over all vectors
+     * @return the mean quantization error, 0 for an empty projection
+     */
+    public double getMeanQuantizationError()
+    {
+        if (bmus.length == 0)
+            return 0;
+        double sum = 0;
+        for (int i = 0; i < quantizationErrors.length; i++)
+            sum += quantizationErrors[i];
+        return sum / quantizationErrors.length;
+    }
+}
@@ -0,0 +1,158 @@
+package org.tum.opensim.somview;
+
+/**
+ * Finds the BMUs of consecutive frames of a trajectory. Consecutive frames usually
+ * map to the same or neighboring nodes, so the search starts at the BMU of the previous
+ * frame p and visits the hexagonal rings around it, radius by radius. After each ring
+ * the triangle inequality decides whether a node further away could still be better:
+ * all of them are at least RingBounds.beyond(p, R) - |q - p| away from the frame q.
+ * If that is more than the distance of the best node found, the result is exact.
+ * Otherwise, after RingBounds.MAX_RADIUS rings, the whole map is searched.
+ *
+ * The results are the same as those of SOMMap.findBMU, including the tie breaking.
+ * The bounds only hold for the plain distance, frames with missing components
+ * (or all frames if the som weights its components) are compared with all nodes.
+ * A tracker keeps the previous BMU and must only be used by one thread.
+ */
+public class BMUTracker {
+
+    /**
+     * Relative error the distance bounds are lowered by
+     */
+    private static final double ROUNDING_MARGIN = 1e-9;
+
+    private final BMUEngine engine;
+    private final RingBounds bounds;
+    private final double[] weights;
+    private final int x_dim;
+    private final int y_dim;
+
+    private int previous = -1;
+    private double distanceSquared;
+    private int frames;
+    private int fullSearches;
+
+    /**
+     * Creates a tracker without a previous BMU
+     * @param som the SOM the frames are projected onto
+     */
+    public BMUTracker(SOMMap som)
+    {
+        this.engine = som.getBMUEngine();
+        this.bounds = som.getRingBounds();
+        this.weights = som.getComponentWeights();
+        this.x_dim = som.getX();
+        this.y_dim = som.getY();
+    }
+
+    /**
+     * Forgets the previous BMU, e.g. at the start of a new trajectory
+     */
+    public void reset() {
+        previous = -1;
+    }
+
+    /**
+     * Finds the BMU of the next frame
+     * @param vector the frame, of the dimension of the nodes
+     * @return index of the BMU in the codebook
+     */
+    public int next(double[] vector)
+    {
+        frames++;
+        MaskedVector masked = MaskedVector.prepare(vector, weights);
+        if (masked != null)
+        {
+            // the search of the next frame still starts at this BMU
+            fullSearches++;
+            BestMatchingUnit bmu = engine.findBMU(masked);
+            previous = bmu.getNode();
+            distanceSquared = bmu.getDistanceSquared();
+            return previous;
+        }
+        if (previous < 0)
+            return fullSearch(vector);
+
+        int p = previous;
+        int px = p % x_dim;
+        int py = p / x_dim;
+        int best = p;
+        double bestDist = engine.distanceSquared(p, vector, Double.POSITIVE_INFINITY);
+        // the square root is only needed for the ring bounds
+        double toPrevious = Math.sqrt(bestDist);
+        for (int radius = 0; radius <= RingBounds.MAX_RADIUS; radius++)
+        {
+            if (radius > 0)
+            {
+                // visit the ring of nodes exactly radius steps away from p
+                for (int y = Math.max(0, py - radius); y <= Math.min(y_dim - 1, py + radius); y++)
+                {
+                    for (int x = Math.max(0, px - radius - 1); x <= Math.min(x_dim - 1, px + radius + 1); x++)
+                    {
+                        if (SOMMap.hexDistance(px, py, x, y) != radius)
+                            continue;
+                        int node = y * x_dim + x;
+                        double dist = engine.distanceSquared(node, vector, bestDist);
+                        if (dist < bestDist || (dist == bestDist && before(node, best)))
+                        {
+                            bestDist = dist;
+                            best = node;
+                        }
+                    }
+                }
+            }
+            // every node beyond this radius is at least that far away from the frame,
+            // less a margin for the rounding of the distances
+            double lowerBound = (bounds.beyond(p, radius) - toPrevious) * (1 - ROUNDING_MARGIN);
+            if (lowerBound > 0 && lowerBound * lowerBound > bestDist)
+            {
+                previous = best;
+                distanceSquared = bestDist;
+                return best;
+            }
+        }
+        return fullSearch(vector);
+    }
+
+    /**
+     * @return squared distance between the last frame and its BMU
+     */
+    public double getDistanceSquared() {
+        return distanceSquared;
+    }
+
+    /**
+     * @return number of frames processed
+     */
+    public int getFrames() {
+        return frames;
+    }
+
+    /**
+     * @return number of frames the whole map had to be searched for
+     */
+    public int getFullSearches() {
+        return fullSearches;
+    }
+
+    private int fullSearch(double[] vector)
+    {
+        fullSearches++;
+        BestMatchingUnit bmu = engine.findBMU(vector);
+        previous = bmu.getNode();
+        distanceSquared = bmu.getDistanceSquared();
+        return previous;
+    }
+
+    /**
+     * @return true if node a wins the tie breaking against node b (smaller x, then smaller y)
+     */
+    private boolean before(int a, int b)
+    {
+        int xA = a % x_dim;
+        int xB = b % x_dim;
+        if (xA != xB)
+            return xA < xB;
+        return a < b;
+    }
+}
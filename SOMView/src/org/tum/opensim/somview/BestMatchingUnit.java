@@ -0,0 +1,62 @@
+package org.tum.opensim.somview;
+
+/**
+ * The node of a SOM that matches a value vector best, together with its distance to the vector
+ */
+public class BestMatchingUnit {
+
+    private final int node;
+    private final int x;
+    private final int y;
+    private final double distanceSquared;
+
+    /**
+     * Constructor
+     * @param node index of the node in the codebook
+     * @param x column of the node
+     * @param y row of the node
+     * @param distanceSquared squared euclidean distance between the node and the vector
+     */
+    public BestMatchingUnit(int node, int x, int y, double distanceSquared)
+    {
+        this.node = node;
+        this.x = x;
+        this.y = y;
+        this.distanceSquared = distanceSquared;
+    }
+
+    /**
+     * @return index of the node in the codebook
+     */
+    public int getNode() {
+        return node;
+    }
+
+    /**
+     * @return column of the node
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * @return row of the node
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * @return squared euclidean distance between the node and the vector
+     */
+    public double getDistanceSquared() {
+        return distanceSquared;
+    }
+
+    /**
+     * @return euclidean distance between the node and the vector
+     */
+    public double getDistance() {
+        return Math.sqrt(distanceSquared);
+    }
+}
@@ -0,0 +1,359 @@
+package org.tum.opensim.somview;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary codebook format (*.bcod). Loading it does not involve any text parsing,
+ * the codebook is memory mapped and used in place, or converted in bulk
+ * if another precision is requested.
+ *
+ * Layout, all numbers little-endian:
+ * <pre>
+ *  0  "SOMB"
+ *  4  int    format version (2, version 1 files have no component names)
+ *  8  int    vector dimensionality
+ * 12  int    grid size in x-direction
+ * 16  int    grid size in y-direction
+ * 20  int    bytes per value: 8 (float64) or 4 (float32)
+ * 24  int    offset of the codebook block (multiple of 8)
+ * 28  int    length of the lattice type, followed by its UTF-8 bytes
+ *     int    length of the neighborhood function, followed by its UTF-8 bytes
+ *     int    number of component names: 0 or the dimensionality (since version 2)
+ *     ...    for every component name: int length, followed by its UTF-8 bytes
+ *     ...    padding up to the codebook block
+ *     codebook: y * x vectors in row-major node order (node = row * x + column)
+ * </pre>
+ */
+public final class BinaryCodebookFile {
+
+    /**
+     * File extension of binary codebook files
+     */
+    public static final String EXTENSION = ".bcod";
+
+    private static final byte[] MAGIC = {'S', 'O', 'M', 'B'};
+    private static final int VERSION = 2;
+
+    /**
+     * Oldest version that can still be read
+     */
+    private static final int MIN_VERSION = 1;
+    private static final int FIXED_HEADER_SIZE = 28;
+
+    /**
+     * Maximal number of bytes that are mapped at once
+     */
+    private static final long WINDOW_SIZE = 1L << 30;
+
+    private BinaryCodebookFile() {
+    }
+
+    /**
+     * Checks whether a file starts with the magic bytes of the binary format
+     * @param file the file to check
+     * @return true if the file is a binary codebook file
+     */
+    public static boolean isBinaryCodebook(File file) throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            byte[] start = new byte[MAGIC.length];
+            int read = 0;
+            while (read < start.length)
+            {
+                int n = in.read(start, read, start.length - read);
+                if (n < 0)
+                    return false;
+                read += n;
+            }
+            for (int i = 0; i < MAGIC.length; i++)
+            {
+                if (start[i] != MAGIC[i])
+                    return false;
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads a SOM from a binary codebook file
+     * @param file the binary codebook file
+     * @param precision precision of the codebook, one of the Codebook.PRECISION_* constants
+     * @return the SOM
+     * @throws SOMReadException if the file is not a valid binary codebook file
+     */
+    public static SOMMap read(File file, int precision) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size < FIXED_HEADER_SIZE)
+                throw new SOMReadException("The file is too short to be a binary SOM file.");
+
+            ByteBuffer fixed = ByteBuffer.allocate(FIXED_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, fixed, 0);
+            for (int i = 0; i < MAGIC.length; i++)
+            {
+                if (fixed.get(i) != MAGIC[i])
+                    throw new SOMReadException("The file is not a binary SOM file.");
+            }
+            int version = fixed.getInt(4);
+            if (version < MIN_VERSION || version > VERSION)
+                throw new SOMReadException("Unsupported binary SOM file version " + version + ".");
+            int dim = fixed.getInt(8);
+            int x = fixed.getInt(12);
+            int y = fixed.getInt(16);
+            int bytesPerValue = fixed.getInt(20);
+            int dataOffset = fixed.getInt(24);
+            if (dim <= 0 || x <= 0 || y <= 0)
+                throw new SOMReadException("The vector dimensionality and the grid size have to be positive.");
+            if (bytesPerValue != 8 && bytesPerValue != 4)
+                throw new SOMReadException("Unsupported value size of " + bytesPerValue + " bytes.");
+            long nodes = (long) x * y;
+            long dataSize = nodes * dim * bytesPerValue;
+            if (dataOffset < FIXED_HEADER_SIZE || dataOffset + dataSize > size)
+                throw new SOMReadException("The file is truncated: expected " + (dataOffset + dataSize)
+                        + " bytes, found " + size + ".");
+
+            ByteBuffer strings = ByteBuffer.allocate(dataOffset - FIXED_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, strings, FIXED_HEADER_SIZE);
+            strings.flip();
+
+            SOMMap som = new SOMMap();
+            som.setDim(dim);
+            som.setX(x);
+            som.setY(y);
+            som.setTopology(readString(strings));
+            som.setNeighborhood(readString(strings));
+            if (version >= 2)
+            {
+                if (strings.remaining() < 4)
+                    throw new SOMReadException("The header of the binary SOM file is truncated.");
+                int count = strings.getInt();
+                if (count != 0 && count != dim)
+                    throw new SOMReadException("The header of the binary SOM file is corrupt.");
+                if (count > 0)
+                {
+                    String[] names = new String[count];
+                    for (int i = 0; i < count; i++)
+                        names[i] = readString(strings);
+                    som.setComponentNames(names);
+                }
+            }
+
+            if (nodes * dim > Integer.MAX_VALUE)
+                throw new SOMReadException("The codebook of " + x + "x" + y + " nodes with "
+                        + dim + " components is too large.");
+
+            //A codebook that fits into a single mapping is used in place, off the heap,
+            //unless it has to be converted to another precision
+            if (dataSize <= Integer.MAX_VALUE)
+            {
+                MappedByteBuffer block = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, dataSize);
+                block.order(ByteOrder.LITTLE_ENDIAN);
+                Codebook mapped;
+                if (bytesPerValue == 8)
+                    mapped = new DoubleBufferCodebook((int) nodes, dim, block.asDoubleBuffer());
+                else
+                    mapped = new FloatBufferCodebook((int) nodes, dim, block.asFloatBuffer());
+                som.setCodebook(mapped.toPrecision(precision));
+                return som;
+            }
+
+            //Otherwise map the codebook in windows of whole vectors and copy it in bulk,
+            //anything but double precision is collected in a float array first
+            double[] doubles = precision == Codebook.PRECISION_DOUBLE ? new double[(int) (nodes * dim)] : null;
+            float[] floats = doubles == null ? new float[(int) (nodes * dim)] : null;
+            long vectorSize = (long) dim * bytesPerValue;
+            long vectorsPerWindow = Math.max(1, WINDOW_SIZE / vectorSize);
+            for (long first = 0; first < nodes; first += vectorsPerWindow)
+            {
+                long count = Math.min(vectorsPerWindow, nodes - first);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                        dataOffset + first * vectorSize, count * vectorSize);
+                window.order(ByteOrder.LITTLE_ENDIAN);
+                int offset = (int) (first * dim);
+                int length = (int) (count * dim);
+                if (bytesPerValue == 8)
+                {
+                    DoubleBuffer values = window.asDoubleBuffer();
+                    if (doubles != null)
+                        values.get(doubles, offset, length);
+                    else
+                        for (int i = 0; i < length; i++)
+                            floats[offset + i] = (float) values.get(i);
+                }
+                else
+                {
+                    FloatBuffer values = window.asFloatBuffer();
+                    if (floats != null)
+                        values.get(floats, offset, length);
+                    else
+                        for (int i = 0; i < length; i++)
+                            doubles[offset + i] = values.get(i);
+                }
+            }
+            if (doubles != null)
+                som.setCodebook(new DoubleCodebook((int) nodes, dim, doubles));
+            else
+                som.setCodebook(new FloatCodebook((int) nodes, dim, floats).toPrecision(precision));
+            return som;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes a SOM to a binary codebook file.
+     * The file is written next to the target first and then renamed over it, the
+     * target is never truncated: the codebook of a loaded .bcod may still be mapped
+     * from it (it can be the codebook that is written), and truncating a mapped
+     * file makes the next access to the mapping fail.
+     * @param som the SOM
+     * @param file the file to write to
+     * @param singlePrecision true: store the values as float32, false: as float64
+     * @throws IOException if the file cannot be written or replaced, e.g. because
+     *         it is mapped on a system that does not allow to replace it then
+     */
+    public static void write(SOMMap som, File file, boolean singlePrecision) throws IOException
+    {
+        File absolute = file.getAbsoluteFile();
+        File temp = File.createTempFile(absolute.getName() + ".", ".tmp", absolute.getParentFile());
+        boolean written = false;
+        try {
+            writeTo(som, temp, singlePrecision);
+            // rename replaces the target on most systems; where it does not, the old file is
+            // deleted first, which fails while it is mapped, so a mapped file is never broken
+            written = temp.renameTo(absolute) || (absolute.delete() && temp.renameTo(absolute));
+            if (!written)
+                throw new IOException("Could not replace " + absolute + ", it may be in use.");
+        } finally {
+            if (!written)
+                temp.delete();
+        }
+    }
+
+    /**
+     * Writes a SOM to a new file
+     */
+    private static void writeTo(SOMMap som, File file, boolean singlePrecision) throws IOException
+    {
+        byte[] topology = som.getSom_type().getBytes("UTF-8");
+        byte[] neighborhood = som.getNeighborhood().getBytes("UTF-8");
+        String[] componentNames = som.getComponentNames();
+        byte[][] names = new byte[componentNames == null ? 0 : componentNames.length][];
+        int stringsEnd = FIXED_HEADER_SIZE + 4 + topology.length + 4 + neighborhood.length + 4;
+        for (int i = 0; i < names.length; i++)
+        {
+            names[i] = componentNames[i].getBytes("UTF-8");
+            stringsEnd += 4 + names[i].length;
+        }
+        int dataOffset = (stringsEnd + 7) & ~7;
+        int bytesPerValue = singlePrecision ? 4 : 8;
+
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            // the header is written in one piece
+            ByteBuffer buf = ByteBuffer.allocate(Math.max(1 << 20, dataOffset)).order(ByteOrder.LITTLE_ENDIAN);
+            buf.put(MAGIC);
+            buf.putInt(VERSION);
+            buf.putInt(som.getDim());
+            buf.putInt(som.getX());
+            buf.putInt(som.getY());
+            buf.putInt(bytesPerValue);
+            buf.putInt(dataOffset);
+            buf.putInt(topology.length);
+            buf.put(topology);
+            buf.putInt(neighborhood.length);
+            buf.put(neighborhood);
+            buf.putInt(names.length);
+            for (byte[] name : names)
+            {
+                buf.putInt(name.length);
+                buf.put(name);
+            }
+            while (buf.position() < dataOffset)
+                buf.put((byte) 0);
+
+            Codebook codebook = som.getCodebook();
+            int nodes = codebook.getNodeCount();
+            int dim = codebook.getDim();
+            for (int n = 0; n < nodes; n++)
+            {
+                for (int d = 0; d < dim; d++)
+                {
+                    if (buf.remaining() < bytesPerValue)
+                        flush(channel, buf);
+                    if (singlePrecision)
+                        buf.putFloat((float) codebook.get(n, d));
+                    else
+                        buf.putDouble(codebook.get(n, d));
+                }
+            }
+            flush(channel, buf);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Converts a .cod file to the binary format
+     * @param codFile the .cod file
+     * @param binaryFile the binary file to write to
+     * @param singlePrecision true: store the values as float32, false: as float64
+     * @throws SOMReadException if the .cod file is malformed
+     */
+    public static void convert(File codFile, File binaryFile, boolean singlePrecision) throws IOException
+    {
+        write(SOMMap.readFile(codFile, singlePrecision ? Codebook.PRECISION_FLOAT : Codebook.PRECISION_DOUBLE),
+                binaryFile, singlePrecision);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buf) throws IOException
+    {
+        buf.flip();
+        while (buf.hasRemaining())
+            channel.write(buf);
+        buf.clear();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buf, long position) throws IOException
+    {
+        while (buf.hasRemaining())
+        {
+            int n = channel.read(buf, position + buf.position());
+            if (n < 0)
+                throw new SOMReadException("The binary SOM file is truncated.");
+        }
+    }
+
+    private static String readString(ByteBuffer buf) throws SOMReadException
+    {
+        if (buf.remaining() < 4)
+            throw new SOMReadException("The header of the binary SOM file is truncated.");
+        int length = buf.getInt();
+        if (length < 0 || length > buf.remaining())
+            throw new SOMReadException("The header of the binary SOM file is corrupt.");
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (java.io.UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
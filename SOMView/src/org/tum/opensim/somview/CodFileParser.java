@@ -0,0 +1,466 @@
+package org.tum.opensim.somview;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Byte level parser for .cod files as specified in the
+ * @see <a href="http://www.cis.hut.fi/somtoolbox/package/papers/techrep.pdf">SOMToolbox documentation</a>
+ *
+ * The file is streamed through a reusable buffer and the values are parsed
+ * directly from the bytes into the codebook, so no String objects are created
+ * per value. Errors are reported as @see SOMReadException with the line and
+ * column they occured in.
+ *
+ * Missing values are written as 'x' (SOM_PAK) or NaN. A codebook needs all of its
+ * values, the missing ones are replaced by the mean of the component over the nodes.
+ * The vectors go straight into a codebook of the requested precision
+ * (@see CodebookBuilder ), a quantized one needs a second pass over the file.
+ *
+ * A comment line "#n name1 name2 ..." as written by SOMExport names the components.
+ * It is only taken from the comments in front of the first vector, the last one
+ * there wins; @see ParallelCodFileParser follows the same rule.
+ */
+final class CodFileParser {
+
+    /**
+     * Size of the read buffer. Grows if a single line does not fit.
+     */
+    private static final int BUFFER_SIZE = 1 << 18;
+
+    /**
+     * Maximal number of significant digits that are accumulated in the mantissa
+     */
+    private static final int MAX_DIGITS = 18;
+
+    /**
+     * Powers of ten that are exactly representable as doubles
+     */
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+        1e21, 1e22
+    };
+
+    private CodFileParser() {
+    }
+
+    /**
+     * Reads a SOM from a .cod file
+     * @param file the .cod file
+     * @param precision precision of the codebook, one of the Codebook.PRECISION_* constants
+     * @return the SOM
+     * @throws SOMReadException if the file content does not match the .cod format
+     * @throws IOException if the file can not be read
+     */
+    static SOMMap read(File file, int precision) throws IOException
+    {
+        CodebookBuilder[] builder = new CodebookBuilder[1];
+        SOMMap som;
+        do {
+            som = parse(file, precision, builder);
+        } while (builder[0].nextPass());
+        som.setCodebook(builder[0].finish());
+        return som;
+    }
+
+    /**
+     * Parses a .cod file once and hands its vectors to a codebook builder
+     * @param builder holds the builder, which is created for the header on the first pass
+     * @return the SOM without codebook
+     */
+    private static SOMMap parse(File file, int precision, CodebookBuilder[] builder) throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            buf.flip();
+            boolean eof = false;
+
+            SOMMap som = null;
+            double[] vector = null;
+            CodebookBuilder.Statistics statistics = null;
+            int nodes = 0;
+            int index = 0;
+            int lineNumber = 0;
+            String[] names = null;
+
+            while (true)
+            {
+                int start = buf.position();
+                int end = indexOfNewline(buf, start, buf.limit());
+                if (end < 0)
+                {
+                    if (!eof)
+                    {
+                        // the current line is incomplete => keep it and read more bytes
+                        if (start == 0 && buf.limit() == buf.capacity())
+                        {
+                            // a single line fills the whole buffer => grow it
+                            ByteBuffer larger = ByteBuffer.allocate(buf.capacity() * 2);
+                            larger.put(buf);
+                            buf = larger;
+                        }
+                        else
+                        {
+                            buf.compact();
+                        }
+                        eof = channel.read(buf) < 0;
+                        buf.flip();
+                        continue;
+                    }
+                    if (start == buf.limit())
+                        break;
+                    // last line without a trailing newline
+                    end = buf.limit();
+                }
+                lineNumber++;
+                buf.position(Math.min(end + 1, buf.limit()));
+
+                // ignore trailing carriage returns
+                int to = end;
+                if (to > start && buf.get(to - 1) == '\r')
+                    to--;
+                int first = skipBlanks(buf, start, to);
+                // comment lines and empty lines are ignored, except for the component names
+                // in front of the first vector
+                if (first == to || buf.get(first) == '#')
+                {
+                    if (first == to || index > 0)
+                        continue;
+                    String[] found = parseComponentNames(buf, first, to);
+                    if (found != null)
+                        names = found;
+                    continue;
+                }
+
+                if (som == null)
+                {
+                    som = parseHeader(new String(buf.array(), start, to - start, "US-ASCII"), lineNumber);
+                    nodes = som.getX() * som.getY();
+                    // every vector is parsed into one buffer and stored in the codebook right away
+                    vector = new double[som.getDim()];
+                    statistics = new CodebookBuilder.Statistics(som.getDim());
+                    if (builder[0] == null)
+                        builder[0] = new CodebookBuilder(precision, nodes, som.getDim());
+                }
+                else
+                {
+                    if (index >= nodes)
+                    {
+                        throw new SOMReadException("The file contains more than the " + nodes
+                                + " vectors specified in the header.", lineNumber, 1);
+                    }
+                    parseVector(buf, start, to, lineNumber, vector, 0, som.getDim());
+                    statistics.add(vector);
+                    builder[0].store(index, vector);
+                    index++;
+                }
+            }
+
+            if (som == null)
+            {
+                throw new SOMReadException("The specified *.cod file does not contain a header.");
+            }
+            if (index != nodes)
+            {
+                throw new SOMReadException("The file contains " + index + " vectors, but the header specifies "
+                        + som.getX() + "x" + som.getY() + " = " + nodes + " nodes.", lineNumber, 1);
+            }
+            builder[0].addStatistics(statistics);
+            if (names != null && names.length == som.getDim())
+                som.setComponentNames(names);
+            return som;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Parses a comment line with the names of the components: "#n name1 name2 ..."
+     * @param buf buffer containing the line
+     * @param first index of the '#' the line starts with
+     * @param to end of the line
+     * @return the names, null if the line is another comment
+     */
+    static String[] parseComponentNames(ByteBuffer buf, int first, int to) throws IOException
+    {
+        if (to - first < 2 || buf.get(first + 1) != 'n' || (to - first > 2 && !isBlank(buf.get(first + 2))))
+            return null;
+        int from = skipBlanks(buf, first + 2, to);
+        byte[] bytes = new byte[to - from];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = buf.get(from + i);
+        String line = new String(bytes, "UTF-8").trim();
+        return line.length() == 0 ? new String[0] : line.split("\\s+");
+    }
+
+    /**
+     * Parses the header line of a .cod file:
+     * <vector dimensionality> <lattice type> <grid size in x-direction> <grid size in y-direction> [<neighborhood function>]
+     * @param line the header line
+     * @param lineNumber number of the header line in the file
+     * @return a SOM without codebook that carries the header information
+     * @throws SOMReadException if the header is malformed
+     */
+    static SOMMap parseHeader(String line, int lineNumber) throws SOMReadException
+    {
+        String[] tokens = line.trim().split("\\s+");
+        if (tokens.length != 4 && tokens.length != 5)
+        {
+            throw new SOMReadException("The specified *.cod file does not contain a header as expected. \n"
+                    + "Expected a header of the following format: \n"
+                    + "<vector dimensionality> <lattice type> <grid size in x-direction> <grid size in y-direction> <neighborhood function> \n"
+                    + "The neighborhood function may be omitted as different neighborhood types are currently not"
+                    + " supported.", lineNumber, 1);
+        }
+        SOMMap som = new SOMMap();
+        try {
+            som.setDim(Integer.parseInt(tokens[0]));
+            som.setTopology(tokens[1]);
+            som.setX(Integer.parseInt(tokens[2]));
+            som.setY(Integer.parseInt(tokens[3]));
+        } catch (NumberFormatException e) {
+            throw new SOMReadException("The header contains an invalid number: " + e.getMessage(), lineNumber, 1);
+        }
+        if (som.getDim() <= 0 || som.getX() <= 0 || som.getY() <= 0)
+        {
+            throw new SOMReadException("The vector dimensionality and the grid size have to be positive.", lineNumber, 1);
+        }
+        if ((long) som.getX() * som.getY() * som.getDim() > Integer.MAX_VALUE)
+        {
+            throw new SOMReadException("The codebook of " + som.getX() + "x" + som.getY() + " nodes with "
+                    + som.getDim() + " components is too large.", lineNumber, 1);
+        }
+        if (tokens.length == 5)
+            som.setNeighborhood(tokens[4]);
+        else
+            som.setNeighborhood("bubble");
+        return som;
+    }
+
+    /**
+     * Parses one line containing a value vector
+     * @param buf buffer containing the line
+     * @param from index of the first byte of the line
+     * @param to index behind the last byte of the line
+     * @param lineNumber number of the line in the file (for error messages)
+     * @param dest array the values are written to
+     * @param offset index in dest the first value is written to
+     * @param dim number of values expected in this line
+     * @throws SOMReadException if the line does not contain exactly dim double values,
+     *         missing values ('x' or NaN) are stored as NaN
+     */
+    static void parseVector(ByteBuffer buf, int from, int to, int lineNumber,
+            double[] dest, int offset, int dim) throws SOMReadException
+    {
+        int pos = from;
+        for (int i = 0; i < dim; i++)
+        {
+            pos = skipBlanks(buf, pos, to);
+            if (pos >= to)
+            {
+                throw new SOMReadException("The vector dimensionality of the data is not consistent"
+                        + " with that specified in the header: expected " + dim + " values, found " + i + ".",
+                        lineNumber, pos - from + 1);
+            }
+            pos = parseDouble(buf, pos, to, lineNumber, from, dest, offset + i);
+        }
+        pos = skipBlanks(buf, pos, to);
+        if (pos < to)
+        {
+            throw new SOMReadException("The vector dimensionality of the data is not consistent"
+                    + " with that specified in the header: expected " + dim + " values, found more.",
+                    lineNumber, pos - from + 1);
+        }
+    }
+
+    /**
+     * Parses a double value starting at pos and stores it in dest[index].
+     * Values with up to 15 significant digits and a decimal exponent of at most 22
+     * are converted exactly with a single multiplication or division,
+     * all others are handed to @see Double#parseDouble .
+     * @return the index behind the parsed value
+     */
+    private static int parseDouble(ByteBuffer buf, int pos, int to, int lineNumber, int lineStart,
+            double[] dest, int index) throws SOMReadException
+    {
+        int missing = missingValueEnd(buf, pos, to);
+        if (missing >= 0)
+        {
+            dest[index] = Double.NaN;
+            return missing;
+        }
+        int start = pos;
+        boolean negative = false;
+        byte c = buf.get(pos);
+        if (c == '-' || c == '+')
+        {
+            negative = c == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int significant = 0;
+        int exponent = 0;
+        boolean digits = false;
+        // digits beyond MAX_DIGITS are dropped, the token is parsed as text then
+        boolean truncated = false;
+
+        // integer part
+        while (pos < to && (c = buf.get(pos)) >= '0' && c <= '9')
+        {
+            digits = true;
+            if (significant < MAX_DIGITS)
+            {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa != 0)
+                    significant++;
+            }
+            else
+            {
+                exponent++;
+                truncated = true;
+            }
+            pos++;
+        }
+        // fraction
+        if (pos < to && buf.get(pos) == '.')
+        {
+            pos++;
+            while (pos < to && (c = buf.get(pos)) >= '0' && c <= '9')
+            {
+                digits = true;
+                if (significant < MAX_DIGITS)
+                {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa != 0)
+                        significant++;
+                    exponent--;
+                }
+                else
+                {
+                    truncated = true;
+                }
+                pos++;
+            }
+        }
+        if (!digits)
+        {
+            throw notADouble(buf, start, to, lineNumber, lineStart);
+        }
+        // exponent
+        if (pos < to && ((c = buf.get(pos)) == 'e' || c == 'E'))
+        {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < to && ((c = buf.get(pos)) == '-' || c == '+'))
+            {
+                negativeExponent = c == '-';
+                pos++;
+            }
+            int e = 0;
+            boolean exponentDigits = false;
+            while (pos < to && (c = buf.get(pos)) >= '0' && c <= '9')
+            {
+                if (e < 100000)
+                    e = e * 10 + (c - '0');
+                exponentDigits = true;
+                pos++;
+            }
+            if (!exponentDigits)
+            {
+                throw notADouble(buf, start, to, lineNumber, lineStart);
+            }
+            exponent += negativeExponent ? -e : e;
+        }
+        if (pos < to && !isBlank(buf.get(pos)))
+        {
+            throw notADouble(buf, start, to, lineNumber, lineStart);
+        }
+
+        if (truncated)
+        {
+            // the dropped digits may round the value up
+            char[] token = new char[pos - start];
+            for (int i = 0; i < token.length; i++)
+                token[i] = (char) buf.get(start + i);
+            dest[index] = Double.parseDouble(new String(token));
+            return pos;
+        }
+
+        double value;
+        if (mantissa == 0)
+            value = 0.0;
+        else if (significant <= 15 && exponent >= -22 && exponent <= 22)
+            value = exponent >= 0 ? mantissa * POW10[exponent] : mantissa / POW10[-exponent];
+        else
+            value = Double.parseDouble(Long.toString(mantissa) + "E" + exponent);
+
+        dest[index] = negative ? -value : value;
+        return pos;
+    }
+
+    /**
+     * @return the index behind the token starting at pos if it marks a missing value
+     *         ('x' or NaN), otherwise -1
+     */
+    private static int missingValueEnd(ByteBuffer buf, int pos, int to)
+    {
+        byte c = buf.get(pos);
+        int end;
+        if (c == 'x')
+            end = pos + 1;
+        else if (c == 'N' && pos + 2 < to && buf.get(pos + 1) == 'a' && buf.get(pos + 2) == 'N')
+            end = pos + 3;
+        else
+            return -1;
+        return end == to || isBlank(buf.get(end)) ? end : -1;
+    }
+
+    /**
+     * Creates the exception for a token that is not a double value
+     */
+    private static SOMReadException notADouble(ByteBuffer buf, int start, int to, int lineNumber, int lineStart)
+    {
+        int end = start;
+        while (end < to && !isBlank(buf.get(end)))
+            end++;
+        byte[] token = new byte[end - start];
+        for (int i = 0; i < token.length; i++)
+            token[i] = buf.get(start + i);
+        return new SOMReadException(new String(token) + " is not a double value.", lineNumber, start - lineStart + 1);
+    }
+
+    private static boolean isBlank(byte c)
+    {
+        return c == ' ' || c == '\t' || c == '\r';
+    }
+
+    /**
+     * @return index of the first non blank byte in [pos,to) or to
+     */
+    static int skipBlanks(ByteBuffer buf, int pos, int to)
+    {
+        while (pos < to && isBlank(buf.get(pos)))
+            pos++;
+        return pos;
+    }
+
+    /**
+     * @return index of the first newline in [pos,to) or -1
+     */
+    static int indexOfNewline(ByteBuffer buf, int pos, int to)
+    {
+        for (; pos < to; pos++)
+        {
+            if (buf.get(pos) == '\n')
+                return pos;
+        }
+        return -1;
+    }
+}
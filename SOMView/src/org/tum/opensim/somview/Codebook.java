@@ -0,0 +1,214 @@
+package org.tum.opensim.somview;
+
+/**
+ * The value vectors of all nodes of a SOM, stored contiguously.
+ * Nodes are numbered in row-major order (node = row * x + column) and
+ * component i of node n is found at position n * dim + i of the underlying storage.
+ */
+public abstract class Codebook {
+
+    /**
+     * Values are stored as 64 bit floating point numbers
+     */
+    public static final int PRECISION_DOUBLE = 0;
+    /**
+     * Values are stored as 32 bit floating point numbers
+     */
+    public static final int PRECISION_FLOAT = 1;
+    /**
+     * Values are quantized to 16 bit integers with a scale and offset per component
+     */
+    public static final int PRECISION_INT16 = 2;
+    /**
+     * Values are quantized to 8 bit integers with a scale and offset per component
+     */
+    public static final int PRECISION_INT8 = 3;
+
+    /**
+     * Number of components after which the early abandoning distance
+     * compares the partial sum with its bound
+     */
+    protected static final int ABANDON_BLOCK = 8;
+
+    /**
+     * Number of nodes
+     */
+    protected final int nodes;
+
+    /**
+     * Dimensionality of the value vectors
+     */
+    protected final int dim;
+
+    /**
+     * Constructor
+     * @param nodes number of nodes
+     * @param dim dimensionality of the value vectors
+     */
+    protected Codebook(int nodes, int dim)
+    {
+        if ((long) nodes * dim > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("A codebook of " + nodes + " vectors with "
+                    + dim + " components is too large.");
+        this.nodes = nodes;
+        this.dim = dim;
+    }
+
+    /**
+     * @return the number of nodes
+     */
+    public int getNodeCount() {
+        return nodes;
+    }
+
+    /**
+     * @return the dimensionality of the value vectors
+     */
+    public int getDim() {
+        return dim;
+    }
+
+    /**
+     * @return the precision the values are stored with, one of the PRECISION_* constants
+     */
+    public abstract int getPrecision();
+
+    /**
+     * Converts this codebook to another precision
+     * @param precision one of the PRECISION_* constants
+     * @return this codebook if it already has the requested precision, otherwise a converted copy
+     */
+    public Codebook toPrecision(int precision)
+    {
+        if (precision == getPrecision())
+            return this;
+        switch (precision)
+        {
+            case PRECISION_DOUBLE:
+                return new DoubleCodebook(this);
+            case PRECISION_FLOAT:
+                return new FloatCodebook(this);
+            case PRECISION_INT16:
+                return new ShortCodebook(this);
+            case PRECISION_INT8:
+                return new ByteCodebook(this);
+            default:
+                throw new IllegalArgumentException("Unknown codebook precision " + precision);
+        }
+    }
+
+    /**
+     * A read-only codebook (e.g. one that is memory mapped from a file)
+     * throws a ReadOnlyBufferException on any attempt to change it
+     * @return true if the values of this codebook cannot be changed
+     */
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    /**
+     * Getter for a single component
+     * @param node index of the node
+     * @param component index of the component
+     * @return the value of the component
+     */
+    public abstract double get(int node, int component);
+
+    /**
+     * Setter for a single component
+     * @param node index of the node
+     * @param component index of the component
+     * @param value the new value
+     */
+    public abstract void set(int node, int component, double value);
+
+    /**
+     * Copies the value vector of a node
+     * @param node index of the node
+     * @param dest array the vector is copied to
+     * @param offset position in dest the first component is copied to
+     */
+    public abstract void getVector(int node, double[] dest, int offset);
+
+    /**
+     * Copies the value vector of a node
+     * @param node index of the node
+     * @param dest array of length dim the vector is copied to
+     */
+    public void getVector(int node, double[] dest)
+    {
+        getVector(node, dest, 0);
+    }
+
+    /**
+     * Replaces the value vector of a node
+     * @param node index of the node
+     * @param src array of length dim containing the new vector
+     */
+    public abstract void setVector(int node, double[] src);
+
+    /**
+     * Returns a copy of the value vector of a node
+     * @param node index of the node
+     * @return the value vector
+     */
+    public double[] getVector(int node)
+    {
+        double[] vector = new double[dim];
+        getVector(node, vector);
+        return vector;
+    }
+
+    /**
+     * Squared euclidean distance between the vector of a node and another vector
+     * @param node index of the node
+     * @param vector vector of length dim
+     * @return the squared distance
+     */
+    public abstract double distanceSquared(int node, double[] vector);
+
+    /**
+     * Squared euclidean distance between the vector of a node and another vector,
+     * which stops adding up components once the sum exceeds a bound
+     * @param node index of the node
+     * @param vector vector of length dim
+     * @param bound distances greater than this are of no interest
+     * @return the squared distance if it is at most bound,
+     *         otherwise some value greater than bound
+     */
+    public double distanceSquared(int node, double[] vector, double bound)
+    {
+        return distanceSquared(node, vector);
+    }
+
+    /**
+     * Weighted squared euclidean distance between the vector of a node and another vector,
+     * which stops adding up components once the sum exceeds a bound.
+     * Components with weight 0 are skipped without a branch, as long as the
+     * vector holds some finite value (e.g. 0) for them.
+     * @param node index of the node
+     * @param vector vector of length dim
+     * @param weights weight of every component, of length dim
+     * @param bound distances greater than this are of no interest
+     * @return the weighted squared distance if it is at most bound,
+     *         otherwise some value greater than bound
+     */
+    public double distanceSquared(int node, double[] vector, double[] weights, double bound)
+    {
+        double sum = 0;
+        for (int i = 0; i < dim; i++)
+        {
+            double diff = get(node, i) - vector[i];
+            sum += weights[i] * diff * diff;
+        }
+        return sum;
+    }
+
+    /**
+     * Squared euclidean distance between the vectors of two nodes
+     * @param a index of the first node
+     * @param b index of the second node
+     * @return the squared distance
+     */
+    public abstract double distanceSquared(int a, int b);
+}
@@ -0,0 +1,187 @@
+package org.tum.opensim.somview;
+
+import java.util.Arrays;
+
+/**
+ * Collects the vectors of a parsed file straight into a codebook of the requested
+ * precision, so no double copy of the whole codebook is needed on the way.
+ *
+ * Missing values (NaN) are replaced by the mean of the component over the vectors
+ * it is present in, or 0 if it is missing in all of them. The means come from the
+ * per component statistics the parsers gather while they go through the vectors.
+ *
+ * A quantized codebook needs the range of every component before the first value
+ * can be stored, so for PRECISION_INT16 and PRECISION_INT8 the file is parsed
+ * twice: the first pass only gathers the statistics (@see nextPass ).
+ */
+final class CodebookBuilder {
+
+    /**
+     * Per component sums, counts and ranges of the values of some of the vectors.
+     * Every parser thread gathers its own and adds them with @see addStatistics .
+     */
+    static final class Statistics {
+
+        private final double[] sum;
+        private final int[] count;
+        private final double[] min;
+        private final double[] max;
+        private long missing;
+
+        /**
+         * @param dim dimensionality of the vectors
+         */
+        Statistics(int dim)
+        {
+            sum = new double[dim];
+            count = new int[dim];
+            min = new double[dim];
+            max = new double[dim];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        }
+
+        /**
+         * Counts the values of a vector, NaN is counted as missing
+         */
+        void add(double[] vector)
+        {
+            for (int c = 0; c < sum.length; c++)
+            {
+                double value = vector[c];
+                if (Double.isNaN(value))
+                {
+                    missing++;
+                    continue;
+                }
+                sum[c] += value;
+                count[c]++;
+                if (value < min[c])
+                    min[c] = value;
+                if (value > max[c])
+                    max[c] = value;
+            }
+        }
+
+        private void merge(Statistics other)
+        {
+            for (int c = 0; c < sum.length; c++)
+            {
+                sum[c] += other.sum[c];
+                count[c] += other.count[c];
+                min[c] = Math.min(min[c], other.min[c]);
+                max[c] = Math.max(max[c], other.max[c]);
+            }
+            missing += other.missing;
+        }
+
+        private double mean(int c)
+        {
+            return count[c] == 0 ? 0 : sum[c] / count[c];
+        }
+    }
+
+    private final int precision;
+    private final int nodes;
+    private final int dim;
+    private final Statistics statistics;
+    /**
+     * The codebook the vectors are stored in, null during the first pass for a quantized one
+     */
+    private Codebook codebook;
+    private boolean secondPass;
+
+    /**
+     * @param precision precision of the codebook, one of the Codebook.PRECISION_* constants
+     * @param nodes number of vectors
+     * @param dim dimensionality of the vectors
+     */
+    CodebookBuilder(int precision, int nodes, int dim)
+    {
+        this.precision = precision;
+        this.nodes = nodes;
+        this.dim = dim;
+        statistics = new Statistics(dim);
+        switch (precision)
+        {
+            case Codebook.PRECISION_DOUBLE:
+                codebook = new DoubleCodebook(nodes, dim);
+                break;
+            case Codebook.PRECISION_FLOAT:
+                codebook = new FloatCodebook(nodes, dim, new float[nodes * dim]);
+                break;
+            case Codebook.PRECISION_INT16:
+            case Codebook.PRECISION_INT8:
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown codebook precision " + precision);
+        }
+    }
+
+    /**
+     * Stores the vector of a node. Several threads may store different nodes at the same time.
+     * @param node index of the node
+     * @param vector the vector, it may be changed
+     */
+    void store(int node, double[] vector)
+    {
+        if (codebook == null)
+            return;
+        if (secondPass)
+        {
+            // the statistics are complete in the second pass, a level needs a value
+            for (int c = 0; c < dim; c++)
+            {
+                if (Double.isNaN(vector[c]))
+                    vector[c] = statistics.mean(c);
+            }
+        }
+        codebook.setVector(node, vector);
+    }
+
+    /**
+     * Adds the statistics gathered by one parser thread during the first (or only) pass
+     */
+    synchronized void addStatistics(Statistics part)
+    {
+        if (!secondPass)
+            statistics.merge(part);
+    }
+
+    /**
+     * Ends a pass over the vectors
+     * @return true if all vectors have to be parsed and stored once more
+     */
+    boolean nextPass()
+    {
+        if (codebook != null)
+            return false;
+        double[][] range = {statistics.min, statistics.max};
+        if (precision == Codebook.PRECISION_INT16)
+            codebook = new ShortCodebook(nodes, dim, range);
+        else
+            codebook = new ByteCodebook(nodes, dim, range);
+        secondPass = true;
+        return true;
+    }
+
+    /**
+     * Replaces the missing values that were stored
+     * @return the codebook
+     */
+    Codebook finish()
+    {
+        if (statistics.missing > 0 && !secondPass)
+        {
+            for (int n = 0; n < nodes; n++)
+            {
+                for (int c = 0; c < dim; c++)
+                {
+                    if (Double.isNaN(codebook.get(n, c)))
+                        codebook.set(n, c, statistics.mean(c));
+                }
+            }
+        }
+        return codebook;
+    }
+}
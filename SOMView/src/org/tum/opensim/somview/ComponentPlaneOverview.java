@@ -0,0 +1,139 @@
+package org.tum.opensim.somview;
+
+import java.awt.Color;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.LinkedList;
+import java.util.List;
+import javax.swing.BorderFactory;
+import javax.swing.ImageIcon;
+import javax.swing.JLabel;
+import javax.swing.SwingConstants;
+
+/**
+ * Panel that shows small images of all component planes of a SOM in a grid.
+ * The images are rendered on all cores, every node is a square of pixels
+ * and the odd rows are shifted by half a node like in the umatrix.
+ * Clicking an image selects its component and notifies the action listeners.
+ */
+public class ComponentPlaneOverview extends javax.swing.JPanel {
+
+    /**
+     * Width of the images in pixels, at least one pixel per node
+     */
+    private static final int IMAGE_WIDTH = 120;
+
+    private final List<ActionListener> listeners = new LinkedList<ActionListener>();
+    private final JLabel[] labels;
+    private int selected = UMatrix.NO_COMPONENT_PLANE;
+
+    /**
+     * Renders the planes
+     * @param som the SOM
+     * @param colorModel UMatrix.GREYSCALE_COLOR_MODEL or UMatrix.COLORED_COLOR_MODEL
+     */
+    public ComponentPlaneOverview(SOMMap som, int colorModel)
+    {
+        final ComponentPlanes planes = som.getComponentPlanes();
+        final int x_dim = som.getX();
+        final int y_dim = som.getY();
+        final int cell = Math.max(1, IMAGE_WIDTH / x_dim);
+        final int width = x_dim * cell + cell / 2;
+        final int height = y_dim * cell;
+        // one color per level
+        final int[] palette = new int[ComponentPlanes.LEVELS + 1];
+        for (int level = 0; level < palette.length; level++)
+            palette[level] = UMatrix.brightnessColor(colorModel, (double) level / ComponentPlanes.LEVELS).getRGB();
+
+        final BufferedImage[] images = new BufferedImage[planes.getDim()];
+        ParallelTasks.forRange(images.length, 1, new ParallelTasks.RangeTask<RuntimeException>() {
+            public void run(int from, int to) {
+                for (int c = from; c < to; c++)
+                {
+                    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+                    java.util.Arrays.fill(pixels, Color.white.getRGB());
+                    for (int y = 0; y < y_dim; y++)
+                    {
+                        int shift = y % 2 == 1 ? cell / 2 : 0;
+                        for (int x = 0; x < x_dim; x++)
+                        {
+                            int color = palette[planes.getLevel(c, x, y)];
+                            int left = x * cell + shift;
+                            for (int row = y * cell; row < (y + 1) * cell; row++)
+                                java.util.Arrays.fill(pixels, row * width + left, row * width + left + cell, color);
+                        }
+                    }
+                    images[c] = image;
+                }
+            }
+        });
+
+        setLayout(new GridLayout(0, (int) Math.ceil(Math.sqrt(images.length)), 4, 4));
+        setBackground(Color.white);
+        labels = new JLabel[images.length];
+        for (int c = 0; c < images.length; c++)
+        {
+            final int component = c;
+            JLabel label = new JLabel(som.getComponentName(c), new ImageIcon(images[c]), SwingConstants.CENTER);
+            label.setVerticalTextPosition(SwingConstants.BOTTOM);
+            label.setHorizontalTextPosition(SwingConstants.CENTER);
+            label.setBorder(BorderFactory.createLineBorder(Color.white, 2));
+            label.setToolTipText(som.getComponentName(c) + ": " + planes.getMin(c) + " .. " + planes.getMax(c));
+            label.addMouseListener(new MouseAdapter() {
+                @Override
+                public void mouseClicked(MouseEvent e) {
+                    setSelectedComponent(component);
+                    fireActionPerformed();
+                }
+            });
+            labels[c] = label;
+            add(label);
+        }
+    }
+
+    /**
+     * Getter for the component whose image was clicked last
+     * @return index of the component, UMatrix.NO_COMPONENT_PLANE if none was clicked
+     */
+    public int getSelectedComponent() {
+        return selected;
+    }
+
+    /**
+     * Marks the image of a component
+     * @param component index of the component, UMatrix.NO_COMPONENT_PLANE for none
+     */
+    public void setSelectedComponent(int component) {
+        if (selected != UMatrix.NO_COMPONENT_PLANE)
+            labels[selected].setBorder(BorderFactory.createLineBorder(Color.white, 2));
+        selected = component;
+        if (selected != UMatrix.NO_COMPONENT_PLANE)
+            labels[selected].setBorder(BorderFactory.createLineBorder(Color.black, 2));
+    }
+
+    /**
+     * @param listener is notified when an image is clicked
+     */
+    public void addActionListener(ActionListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeActionListener(ActionListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireActionPerformed() {
+        ActionEvent event = new ActionEvent(this, ActionEvent.ACTION_PERFORMED, "select");
+        for (ActionListener listener : listeners)
+            listener.actionPerformed(event);
+    }
+}
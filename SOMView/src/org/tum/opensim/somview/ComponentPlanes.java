@@ -0,0 +1,155 @@
+package org.tum.opensim.somview;
+
+/**
+ * The component planes of a SOM: for every component of the value vectors
+ * the values of all nodes, scaled to the range of the component and stored
+ * as one byte per node. A plane can be shown like the umatrix, with the
+ * level of a node as its brightness, and switching between planes needs
+ * no access to the codebook.
+ *
+ * The codebook is read in its own order (node by node) in blocks of
+ * BLOCK_NODES nodes, which are transposed into the planes.
+ */
+public class ComponentPlanes {
+
+    /**
+     * Highest level, the level of the largest value of a component
+     */
+    public static final int LEVELS = 255;
+
+    /**
+     * Number of nodes that are read before they are written to the planes
+     */
+    private static final int BLOCK_NODES = 64;
+
+    private final int x_dim;
+    private final int nodes;
+    private final int dim;
+    private final double[] min;
+    private final double[] max;
+
+    /**
+     * Level of node n in plane c at c * nodes + n
+     */
+    private final byte[] levels;
+
+    /**
+     * Computes the planes on all cores
+     * @param codebook the codebook of the SOM
+     * @param x_dim number of nodes in x direction of the SOM
+     */
+    ComponentPlanes(final Codebook codebook, int x_dim)
+    {
+        this.x_dim = x_dim;
+        this.nodes = codebook.getNodeCount();
+        this.dim = codebook.getDim();
+        if ((long) nodes * dim > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The SOM is too large to store its component planes.");
+        min = new double[dim];
+        max = new double[dim];
+        java.util.Arrays.fill(min, Double.POSITIVE_INFINITY);
+        java.util.Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        levels = new byte[nodes * dim];
+
+        // the ranges of the components
+        ParallelTasks.forRange(nodes, BLOCK_NODES, new ParallelTasks.RangeTask<RuntimeException>() {
+            public void run(int from, int to) {
+                double[] localMin = new double[dim];
+                double[] localMax = new double[dim];
+                java.util.Arrays.fill(localMin, Double.POSITIVE_INFINITY);
+                java.util.Arrays.fill(localMax, Double.NEGATIVE_INFINITY);
+                double[] vector = new double[dim];
+                for (int node = from; node < to; node++)
+                {
+                    codebook.getVector(node, vector, 0);
+                    for (int c = 0; c < dim; c++)
+                    {
+                        localMin[c] = Math.min(localMin[c], vector[c]);
+                        localMax[c] = Math.max(localMax[c], vector[c]);
+                    }
+                }
+                synchronized (min) {
+                    for (int c = 0; c < dim; c++)
+                    {
+                        min[c] = Math.min(min[c], localMin[c]);
+                        max[c] = Math.max(max[c], localMax[c]);
+                    }
+                }
+            }
+        });
+
+        // the levels, a block of nodes is read row by row and written plane by plane
+        ParallelTasks.forRange((nodes + BLOCK_NODES - 1) / BLOCK_NODES, 1, new ParallelTasks.RangeTask<RuntimeException>() {
+            public void run(int from, int to) {
+                double[] block = new double[BLOCK_NODES * dim];
+                double[] scale = new double[dim];
+                for (int c = 0; c < dim; c++)
+                    scale[c] = max[c] > min[c] ? LEVELS / (max[c] - min[c]) : 0;
+                for (int b = from; b < to; b++)
+                {
+                    int first = b * BLOCK_NODES;
+                    int count = Math.min(BLOCK_NODES, nodes - first);
+                    for (int i = 0; i < count; i++)
+                        codebook.getVector(first + i, block, i * dim);
+                    for (int c = 0; c < dim; c++)
+                    {
+                        int plane = c * nodes + first;
+                        for (int i = 0; i < count; i++)
+                            levels[plane + i] = (byte) Math.round((block[i * dim + c] - min[c]) * scale[c]);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return number of planes, the dimension of the value vectors
+     */
+    public int getDim() {
+        return dim;
+    }
+
+    /**
+     * @param component index of the plane
+     * @return smallest value of the component, it has level 0
+     */
+    public double getMin(int component) {
+        return min[component];
+    }
+
+    /**
+     * @param component index of the plane
+     * @return largest value of the component, it has level LEVELS
+     */
+    public double getMax(int component) {
+        return max[component];
+    }
+
+    /**
+     * @param component index of the plane
+     * @param node index of the node (@see SOMMap#getNodeIndex )
+     * @return level of the value of the node in [0, LEVELS]
+     */
+    public int getLevel(int component, int node) {
+        return levels[component * nodes + node] & 0xFF;
+    }
+
+    /**
+     * @param component index of the plane
+     * @param x column of the node
+     * @param y row of the node
+     * @return level of the value of the node in [0, LEVELS]
+     */
+    public int getLevel(int component, int x, int y) {
+        return getLevel(component, y * x_dim + x);
+    }
+
+    /**
+     * @param component index of the plane
+     * @param node index of the node
+     * @return the value of the node as far as the level tells it
+     */
+    public double getValue(int component, int node) {
+        return min[component] + getLevel(component, node) * (max[component] - min[component]) / LEVELS;
+    }
+}
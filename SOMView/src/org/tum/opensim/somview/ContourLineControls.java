@@ -2,6 +2,8 @@ package org.tum.opensim.somview;
 
 import java.text.NumberFormat;
 import java.text.ParseException;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -90,6 +92,10 @@ public class ContourLineControls extends javax.swing.JPanel implements UMatrixOb
         addRemove = new javax.swing.JPanel();
         btn_addLine = new javax.swing.JButton();
         btn_removeLine = new javax.swing.JButton();
+        label_quantiles = new javax.swing.JLabel();
+        quantilePanel = new javax.swing.JPanel();
+        txt_quantiles = new javax.swing.JTextField();
+        btn_quantileLines = new javax.swing.JButton();
 
         setMinimumSize(new java.awt.Dimension(50, 80));
         setLayout(new javax.swing.BoxLayout(this, javax.swing.BoxLayout.Y_AXIS));
@@ -193,6 +199,35 @@ public class ContourLineControls extends javax.swing.JPanel implements UMatrixOb
         addRemove.add(btn_removeLine);
 
         add(addRemove);
+
+        label_quantiles.setFont(new java.awt.Font("Dialog", 0, 12)); // NOI18N
+        label_quantiles.setHorizontalAlignment(javax.swing.SwingConstants.CENTER);
+        label_quantiles.setLabelFor(txt_quantiles);
+        label_quantiles.setText(org.openide.util.NbBundle.getMessage(ContourLineControls.class, "ContourLineControls.label_quantiles.text")); // NOI18N
+        label_quantiles.setAlignmentX(0.5F);
+        add(label_quantiles);
+
+        quantilePanel.setMaximumSize(new java.awt.Dimension(55555555, 25));
+        quantilePanel.setLayout(new javax.swing.BoxLayout(quantilePanel, javax.swing.BoxLayout.X_AXIS));
+
+        txt_quantiles.setText(org.openide.util.NbBundle.getMessage(ContourLineControls.class, "ContourLineControls.txt_quantiles.text")); // NOI18N
+        txt_quantiles.setMaximumSize(new java.awt.Dimension(2147483647, 25));
+        txt_quantiles.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                btn_quantileLinesActionPerformed(evt);
+            }
+        });
+        quantilePanel.add(txt_quantiles);
+
+        btn_quantileLines.setText(org.openide.util.NbBundle.getMessage(ContourLineControls.class, "ContourLineControls.btn_quantileLines.text")); // NOI18N
+        btn_quantileLines.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                btn_quantileLinesActionPerformed(evt);
+            }
+        });
+        quantilePanel.add(btn_quantileLines);
+
+        add(quantilePanel);
     }// </editor-fold>//GEN-END:initComponents
 
     
@@ -267,6 +302,43 @@ public class ContourLineControls extends javax.swing.JPanel implements UMatrixOb
         }
     }//GEN-LAST:event_btn_removeLineActionPerformed
 
+    /**
+    * Is executed when the quantile button is pressed (or enter in the
+    * quantile textfield): replaces the contourlines by lines at the
+    * distances of the given quantiles of the umatrix and turns them on
+    **/
+    private void btn_quantileLinesActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_btn_quantileLinesActionPerformed
+        if(som == null)
+            return;
+        //Parse the quantiles, separated by spaces or commas
+        List<Double> values = new LinkedList<Double>();
+        for(String token : txt_quantiles.getText().trim().split("[\\s,;]+"))
+        {
+            if(token.isEmpty())
+                continue;
+            double quantile;
+            try
+            {
+                quantile = Double.parseDouble(token);
+            }catch(NumberFormatException e)
+            {
+                quantile = -1;
+            }
+            if(quantile < 0 || quantile > 1)
+            {
+                JOptionPane.showMessageDialog(this, "\"" + token + "\" is not a quantile between 0 and 1",
+                        "Invalid quantile", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            //The quantiles are looked up in the sketch of the distances of the som
+            values.add(som.getDistanceQuantiles().getQuantile(quantile));
+        }
+        getUMatrix().setContourLineDists(values);
+        refreshContourlines();
+        if(!cBoxOnOff.isSelected())
+            cBoxOnOff.setSelected(true);
+    }//GEN-LAST:event_btn_quantileLinesActionPerformed
+
     /**
     * Turns the contour lines and the uMatrix interpolation on and off
     **/
@@ -329,14 +401,18 @@ public class ContourLineControls extends javax.swing.JPanel implements UMatrixOb
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JPanel addRemove;
     private javax.swing.JButton btnThicknessChange;
+    private javax.swing.JButton btn_quantileLines;
     private javax.swing.JButton btn_addLine;
     private javax.swing.JButton btn_removeLine;
     private javax.swing.JCheckBox cBoxOnOff;
     private javax.swing.JPanel jPanel1;
+    private javax.swing.JLabel label_quantiles;
     private javax.swing.JLabel label_thickness;
+    private javax.swing.JPanel quantilePanel;
     private javax.swing.JScrollPane tableScrollPane;
     private javax.swing.JTable table_contourLines;
     private javax.swing.JFormattedTextField txt_lineThickness;
+    private javax.swing.JTextField txt_quantiles;
     // End of variables declaration//GEN-END:variables
 
     /**
@@ -0,0 +1,232 @@
+package org.tum.opensim.somview;
+
+/**
+ * Streaming quantile sketch of the distances of a umatrix.
+ *
+ * The positive values are counted in buckets whose bounds grow by a constant
+ * factor, so every quantile is known up to RELATIVE_ACCURACY of its value no
+ * matter how far single outliers lie from the rest. Adding, removing and merging
+ * only change counts: sketches of parts of the distances (e.g. computed on
+ * several cores) are merged into the sketch of all of them, and a distance that
+ * changes is removed and added again. The memory does not depend on the number
+ * of values, at most MAX_BUCKETS buckets are kept, beyond that the buckets of
+ * the smallest values are merged.
+ */
+public class DistanceQuantiles {
+
+    /**
+     * Largest error of a quantile relative to its value
+     */
+    public static final double RELATIVE_ACCURACY = 0.01;
+
+    /**
+     * Largest number of buckets
+     */
+    private static final int MAX_BUCKETS = 2048;
+
+    /**
+     * Ratio of the upper and lower bound of a bucket
+     */
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+
+    /**
+     * Number of values in the bucket offset + i at i, bucket k holds (GAMMA^(k-1), GAMMA^k]
+     */
+    private long[] counts = new long[0];
+    private int offset;
+    /**
+     * Number of values that are 0 or less
+     */
+    private long zeroCount;
+    private long count;
+
+    /**
+     * Number of values up to and including bucket offset + i at i,
+     * computed when a rank is asked for and dropped when the counts change
+     */
+    private long[] cumulative;
+
+    /**
+     * Creates an empty sketch
+     */
+    DistanceQuantiles()
+    {
+    }
+
+    /**
+     * Counts a value
+     * @param value the value, NaN is ignored
+     */
+    void add(double value)
+    {
+        change(value, 1);
+    }
+
+    /**
+     * Removes a value that was counted before
+     * @param value the value, NaN is ignored
+     */
+    void remove(double value)
+    {
+        change(value, -1);
+    }
+
+    /**
+     * Counts all values of another sketch
+     * @param other the sketch, it does not change
+     */
+    void merge(DistanceQuantiles other)
+    {
+        zeroCount += other.zeroCount;
+        count += other.zeroCount;
+        cumulative = null;
+        for (int i = 0; i < other.counts.length; i++)
+        {
+            if (other.counts[i] != 0)
+                changeBucket(other.offset + i, other.counts[i]);
+        }
+    }
+
+    private void change(double value, long amount)
+    {
+        if (Double.isNaN(value))
+            return;
+        if (value <= 0)
+        {
+            zeroCount += amount;
+            count += amount;
+            cumulative = null;
+        }
+        else
+            changeBucket(bucket(value), amount);
+    }
+
+    private void changeBucket(int bucket, long amount)
+    {
+        if (counts.length == 0)
+        {
+            counts = new long[16];
+            offset = bucket - counts.length / 2;
+        }
+        if (bucket < offset && counts.length < MAX_BUCKETS)
+            resize(Math.max(bucket, offset + counts.length - MAX_BUCKETS), offset + counts.length);
+        else if (bucket >= offset + counts.length)
+            resize(offset, bucket + 1);
+        // the smallest values share the lowest bucket
+        if (bucket < offset)
+            bucket = offset;
+        counts[bucket - offset] += amount;
+        count += amount;
+        cumulative = null;
+    }
+
+    /**
+     * Makes room for the buckets from first to end (exclusive), if there are more
+     * than MAX_BUCKETS the lowest ones are merged. The spare buckets are added
+     * on the side the sketch grows to.
+     */
+    private void resize(int first, int end)
+    {
+        int length = Math.min(MAX_BUCKETS, Math.max(end - first, 2 * counts.length));
+        int newOffset = first < offset ? end - length : Math.max(first, end - length);
+        long[] resized = new long[length];
+        for (int i = 0; i < counts.length; i++)
+        {
+            int target = Math.max(offset + i, newOffset) - newOffset;
+            resized[target] += counts[i];
+        }
+        counts = resized;
+        offset = newOffset;
+    }
+
+    private static int bucket(double value)
+    {
+        return (int) Math.ceil(Math.log(value) / LOG_GAMMA);
+    }
+
+    /**
+     * Value that stands for the values in a bucket,
+     * it is within RELATIVE_ACCURACY of all of them
+     */
+    private static double bucketValue(int bucket)
+    {
+        return 2 * Math.pow(GAMMA, bucket) / (GAMMA + 1);
+    }
+
+    /**
+     * @return number of values
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @param quantile the quantile in [0,1], 0.5 for the median
+     * @return the value below which the quantile of the values lies,
+     *         0 if there are no values
+     */
+    public double getQuantile(double quantile)
+    {
+        if (quantile < 0 || quantile > 1)
+            throw new IllegalArgumentException("A quantile has to be in [0,1].");
+        if (count == 0)
+            return 0;
+        long rank = (long) (quantile * (count - 1));
+        if (rank < zeroCount)
+            return 0;
+        long seen = zeroCount;
+        for (int i = 0; i < counts.length; i++)
+        {
+            seen += counts[i];
+            if (seen > rank)
+                return bucketValue(offset + i);
+        }
+        return bucketValue(offset + counts.length - 1);
+    }
+
+    /**
+     * @param quantiles quantiles in [0,1]
+     * @return the value of every quantile (@see getQuantile )
+     */
+    public double[] getQuantiles(double[] quantiles)
+    {
+        double[] values = new double[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++)
+            values[i] = getQuantile(quantiles[i]);
+        return values;
+    }
+
+    /**
+     * Fraction of the values below a value, the values in its bucket count half.
+     * Coloring the distances by their rank equalizes the histogram of the umatrix.
+     * @param value the value
+     * @return the rank in [0,1], 0 if there are no values
+     */
+    public double getRank(double value)
+    {
+        if (count == 0)
+            return 0;
+        if (value <= 0)
+            return zeroCount / 2.0 / count;
+        long[] sums = cumulative;
+        if (sums == null)
+        {
+            sums = new long[counts.length];
+            long sum = zeroCount;
+            for (int i = 0; i < counts.length; i++)
+            {
+                sum += counts[i];
+                sums[i] = sum;
+            }
+            cumulative = sums;
+        }
+        int i = bucket(value) - offset;
+        if (i < 0)
+            i = 0;
+        if (i >= sums.length)
+            return 1;
+        long below = i == 0 ? zeroCount : sums[i - 1];
+        return (below + (sums[i] - below) / 2.0) / count;
+    }
+}
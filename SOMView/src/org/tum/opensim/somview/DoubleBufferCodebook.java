@@ -0,0 +1,109 @@
+package org.tum.opensim.somview;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * Codebook backed by a (direct or memory mapped) DoubleBuffer,
+ * which keeps the values off the Java heap.
+ * The codebook is read-only if the buffer is.
+ */
+public class DoubleBufferCodebook extends Codebook {
+
+    private final DoubleBuffer data;
+
+    /**
+     * Creates a codebook on top of a buffer
+     * @param nodes number of nodes
+     * @param dim dimensionality of the value vectors
+     * @param data buffer with nodes * dim values in row-major node order, starting at index 0
+     */
+    public DoubleBufferCodebook(int nodes, int dim, DoubleBuffer data)
+    {
+        super(nodes, dim);
+        if (data.capacity() < nodes * dim)
+            throw new IllegalArgumentException("Expected " + (nodes * dim) + " values, got " + data.capacity());
+        this.data = data;
+    }
+
+    @Override
+    public int getPrecision() {
+        return PRECISION_DOUBLE;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return data.isReadOnly();
+    }
+
+    @Override
+    public double get(int node, int component) {
+        return data.get(node * dim + component);
+    }
+
+    @Override
+    public void set(int node, int component, double value) {
+        data.put(node * dim + component, value);
+    }
+
+    @Override
+    public void getVector(int node, double[] dest, int offset) {
+        int base = node * dim;
+        for (int i = 0; i < dim; i++)
+            dest[offset + i] = data.get(base + i);
+    }
+
+    @Override
+    public void setVector(int node, double[] src) {
+        int offset = node * dim;
+        for (int i = 0; i < dim; i++)
+            data.put(offset + i, src[i]);
+    }
+
+    @Override
+    public double distanceSquared(int node, double[] vector) {
+        double sum = 0;
+        int offset = node * dim;
+        for (int i = 0; i < dim; i++)
+        {
+            double diff = data.get(offset + i) - vector[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double distanceSquared(int node, double[] vector, double bound) {
+        double sum = 0;
+        int offset = node * dim;
+        int i = 0;
+        for (int blocks = dim - ABANDON_BLOCK; i <= blocks; )
+        {
+            for (int end = i + ABANDON_BLOCK; i < end; i++)
+            {
+                double diff = data.get(offset + i) - vector[i];
+                sum += diff * diff;
+            }
+            if (sum > bound)
+                return sum;
+        }
+        for (; i < dim; i++)
+        {
+            double diff = data.get(offset + i) - vector[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double distanceSquared(int a, int b) {
+        double sum = 0;
+        int offsetA = a * dim;
+        int offsetB = b * dim;
+        for (int i = 0; i < dim; i++)
+        {
+            double diff = data.get(offsetA + i) - data.get(offsetB + i);
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}
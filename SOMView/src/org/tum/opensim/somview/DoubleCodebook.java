@@ -0,0 +1,170 @@
+package org.tum.opensim.somview;
+
+/**
+ * Codebook backed by a single double array
+ */
+public class DoubleCodebook extends Codebook {
+
+    private final double[] data;
+
+    /**
+     * Creates a codebook with all components set to 0
+     * @param nodes number of nodes
+     * @param dim dimensionality of the value vectors
+     */
+    public DoubleCodebook(int nodes, int dim)
+    {
+        super(nodes, dim);
+        this.data = new double[nodes * dim];
+    }
+
+    /**
+     * Creates a codebook on top of an existing array
+     * @param nodes number of nodes
+     * @param dim dimensionality of the value vectors
+     * @param data array of length nodes * dim in row-major node order
+     */
+    public DoubleCodebook(int nodes, int dim, double[] data)
+    {
+        super(nodes, dim);
+        if (data.length != nodes * dim)
+            throw new IllegalArgumentException("Expected " + (nodes * dim) + " values, got " + data.length);
+        this.data = data;
+    }
+
+    /**
+     * Copies another codebook
+     * @param source the codebook to copy
+     */
+    public DoubleCodebook(Codebook source)
+    {
+        this(source.getNodeCount(), source.getDim());
+        for (int n = 0; n < nodes; n++)
+            source.getVector(n, data, n * dim);
+    }
+
+    /**
+     * Copies a map in the layout map[y][x][component] into a new codebook
+     * @param map the map
+     * @return the codebook
+     */
+    public static DoubleCodebook fromMap(double[][][] map)
+    {
+        int y = map.length;
+        int x = y > 0 ? map[0].length : 0;
+        int dim = x > 0 ? map[0][0].length : 0;
+        DoubleCodebook codebook = new DoubleCodebook(x * y, dim);
+        for (int row = 0; row < y; row++)
+        {
+            for (int col = 0; col < x; col++)
+            {
+                System.arraycopy(map[row][col], 0, codebook.data, (row * x + col) * dim, dim);
+            }
+        }
+        return codebook;
+    }
+
+    /**
+     * Direct access to the storage, component i of node n is at n * dim + i
+     * @return the underlying array
+     */
+    public double[] getData() {
+        return data;
+    }
+
+    @Override
+    public int getPrecision() {
+        return PRECISION_DOUBLE;
+    }
+
+    @Override
+    public double get(int node, int component) {
+        return data[node * dim + component];
+    }
+
+    @Override
+    public void set(int node, int component, double value) {
+        data[node * dim + component] = value;
+    }
+
+    @Override
+    public void getVector(int node, double[] dest, int offset) {
+        System.arraycopy(data, node * dim, dest, offset, dim);
+    }
+
+    @Override
+    public void setVector(int node, double[] src) {
+        System.arraycopy(src, 0, data, node * dim, dim);
+    }
+
+    @Override
+    public double distanceSquared(int node, double[] vector) {
+        double sum = 0;
+        int offset = node * dim;
+        for (int i = 0; i < dim; i++)
+        {
+            double diff = data[offset + i] - vector[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double distanceSquared(int node, double[] vector, double bound) {
+        double sum = 0;
+        int offset = node * dim;
+        int i = 0;
+        for (int blocks = dim - ABANDON_BLOCK; i <= blocks; )
+        {
+            for (int end = i + ABANDON_BLOCK; i < end; i++)
+            {
+                double diff = data[offset + i] - vector[i];
+                sum += diff * diff;
+            }
+            if (sum > bound)
+                return sum;
+        }
+        for (; i < dim; i++)
+        {
+            double diff = data[offset + i] - vector[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double distanceSquared(int node, double[] vector, double[] weights, double bound) {
+        double sum = 0;
+        int offset = node * dim;
+        int i = 0;
+        for (int blocks = dim - ABANDON_BLOCK; i <= blocks; )
+        {
+            for (int end = i + ABANDON_BLOCK; i < end; i++)
+            {
+                double diff = data[offset + i] - vector[i];
+                sum += weights[i] * diff * diff;
+            }
+            if (sum > bound)
+                return sum;
+        }
+        for (; i < dim; i++)
+        {
+            double diff = data[offset + i] - vector[i];
+            sum += weights[i] * diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double distanceSquared(int a, int b) {
+        double sum = 0;
+        int offsetA = a * dim;
+        int offsetB = b * dim;
+        for (int i = 0; i < dim; i++)
+        {
+            double diff = data[offsetA + i] - data[offsetB + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}
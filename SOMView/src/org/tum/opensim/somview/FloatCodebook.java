@@ -0,0 +1,147 @@
+package org.tum.opensim.somview;
+
+/**
+ * Codebook backed by a single float array, which halves the memory
+ * needed compared to DoubleCodebook
+ */
+public class FloatCodebook extends Codebook {
+
+    private final float[] data;
+
+    /**
+     * Creates a codebook on top of an existing array
+     * @param nodes number of nodes
+     * @param dim dimensionality of the value vectors
+     * @param data array of length nodes * dim in row-major node order
+     */
+    public FloatCodebook(int nodes, int dim, float[] data)
+    {
+        super(nodes, dim);
+        if (data.length != nodes * dim)
+            throw new IllegalArgumentException("Expected " + (nodes * dim) + " values, got " + data.length);
+        this.data = data;
+    }
+
+    /**
+     * Copies another codebook, the values are rounded to float
+     * @param source the codebook to copy
+     */
+    public FloatCodebook(Codebook source)
+    {
+        this(source.getNodeCount(), source.getDim(), new float[source.getNodeCount() * source.getDim()]);
+        double[] vector = new double[dim];
+        for (int n = 0; n < nodes; n++)
+        {
+            source.getVector(n, vector);
+            setVector(n, vector);
+        }
+    }
+
+    /**
+     * Direct access to the storage, component i of node n is at n * dim + i
+     * @return the underlying array
+     */
+    public float[] getData() {
+        return data;
+    }
+
+    @Override
+    public int getPrecision() {
+        return PRECISION_FLOAT;
+    }
+
+    @Override
+    public double get(int node, int component) {
+        return data[node * dim + component];
+    }
+
+    @Override
+    public void set(int node, int component, double value) {
+        data[node * dim + component] = (float) value;
+    }
+
+    @Override
+    public void getVector(int node, double[] dest, int offset) {
+        int base = node * dim;
+        for (int i = 0; i < dim; i++)
+            dest[offset + i] = data[base + i];
+    }
+
+    @Override
+    public void setVector(int node, double[] src) {
+        int base = node * dim;
+        for (int i = 0; i < dim; i++)
+            data[base + i] = (float) src[i];
+    }
+
+    @Override
+    public double distanceSquared(int node, double[] vector) {
+        double sum = 0;
+        int offset = node * dim;
+        for (int i = 0; i < dim; i++)
+        {
+            double diff = data[offset + i] - vector[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double distanceSquared(int node, double[] vector, double bound) {
+        double sum = 0;
+        int offset = node * dim;
+        int i = 0;
+        for (int blocks = dim - ABANDON_BLOCK; i <= blocks; )
+        {
+            for (int end = i + ABANDON_BLOCK; i < end; i++)
+            {
+                double diff = data[offset + i] - vector[i];
+                sum += diff * diff;
+            }
+            if (sum > bound)
+                return sum;
+        }
+        for (; i < dim; i++)
+        {
+            double diff = data[offset + i] - vector[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double distanceSquared(int node, double[] vector, double[] weights, double bound) {
+        double sum = 0;
+        int offset = node * dim;
+        int i = 0;
+        for (int blocks = dim - ABANDON_BLOCK; i <= blocks; )
+        {
+            for (int end = i + ABANDON_BLOCK; i < end; i++)
+            {
+                double diff = data[offset + i] - vector[i];
+                sum += weights[i] * diff * diff;
+            }
+            if (sum > bound)
+                return sum;
+        }
+        for (; i < dim; i++)
+        {
+            double diff = data[offset + i] - vector[i];
+            sum += weights[i] * diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double distanceSquared(int a, int b) {
+        double sum = 0;
+        int offsetA = a * dim;
+        int offsetB = b * dim;
+        for (int i = 0; i < dim; i++)
+        {
+            double diff = (double) data[offsetA + i] - data[offsetB + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,397 @@
+package org.tum.opensim.somview;
+
+/**
+ * Engine for large batches of vectors. It uses
+ * ||x - w||^2 = ||x||^2 - 2 x.w + ||w||^2
+ * so the BMU of x is the node w with the smallest ||w||^2 - 2 x.w.
+ * The dot products of a batch with all nodes form a matrix product, which is
+ * computed in tiles: a tile of nodes is copied into panels of four interleaved
+ * nodes that stay in the cache while a block of vectors is multiplied with them,
+ * two vectors and one panel at a time. The norms of the nodes are computed once,
+ * when the engine is created.
+ *
+ * The expansion cancels badly if the vectors lie far from the origin, so the mean
+ * of the nodes is subtracted from nodes and vectors first. The scores still carry
+ * a rounding error, which is bounded by ERROR_FACTOR * (||x|| + max ||w||)^2 for
+ * the centered vectors. Every node whose score lies within twice that bound of the
+ * second best score is kept as a candidate and the candidates are ranked again by
+ * their exact distances, like the node scan of BMUEngine does, so the result is the
+ * one of the scan. A vector with more than MAX_CANDIDATES candidates (e.g. because
+ * it lies far away from all nodes) is searched by the scan.
+ * Single vectors are searched like ScalarBMUEngine does. Works with every codebook.
+ */
+public class GemmBMUEngine extends BMUEngine {
+
+    /**
+     * Number of vectors from which on a batch is large enough to amortize
+     * the packing of the node tiles
+     */
+    public static final int MIN_BATCH = 256;
+
+    /**
+     * Number of vectors that are multiplied with a tile of nodes at once
+     */
+    private static final int VECTOR_BLOCK = 128;
+
+    /**
+     * Size of a tile of nodes in bytes, the number of nodes per tile follows from the dimension
+     */
+    private static final int TILE_BYTES = 1 << 16;
+
+    /**
+     * Largest number of candidates per vector that are ranked by their exact distances
+     */
+    private static final int MAX_CANDIDATES = 64;
+
+    private final double[] norms;
+    private final double[] mean;
+    private final int dim;
+    private final int tileNodes;
+    /**
+     * Largest norm of a centered node
+     */
+    private final double maxNorm;
+    /**
+     * Bound of the rounding error of a score relative to (||x|| + max ||w||)^2: the
+     * dot product and the norm of dim products, the centering and the exact distance
+     * each round, with a margin of two
+     */
+    private final double errorFactor;
+
+    /**
+     * Constructor, computes the mean and the norms of all nodes
+     * @param codebook the codebook the distances are computed for
+     * @param x_dim number of nodes in x direction of the SOM
+     */
+    public GemmBMUEngine(Codebook codebook, int x_dim)
+    {
+        super(codebook, x_dim);
+        dim = codebook.getDim();
+        tileNodes = Math.max(4, (TILE_BYTES / (8 * Math.max(1, dim))) & ~3);
+        errorFactor = 4 * (dim + 4) * Math.ulp(1.0);
+        int nodes = codebook.getNodeCount();
+        double[] vector = new double[dim];
+        mean = new double[dim];
+        for (int n = 0; n < nodes; n++)
+        {
+            codebook.getVector(n, vector);
+            for (int i = 0; i < dim; i++)
+                mean[i] += vector[i];
+        }
+        for (int i = 0; i < dim; i++)
+            mean[i] /= Math.max(1, nodes);
+        norms = new double[nodes];
+        double max = 0;
+        for (int n = 0; n < nodes; n++)
+        {
+            codebook.getVector(n, vector);
+            double sum = 0;
+            for (int i = 0; i < dim; i++)
+            {
+                double centered = vector[i] - mean[i];
+                sum += centered * centered;
+            }
+            norms[n] = sum;
+            max = Math.max(max, sum);
+        }
+        maxNorm = Math.sqrt(max);
+    }
+
+    @Override
+    public int getType() {
+        return GEMM;
+    }
+
+    @Override
+    protected double distanceSquared(int node, double[] vector, double bound) {
+        return codebook.distanceSquared(node, vector, bound);
+    }
+
+    /**
+     * @param node index of a node
+     * @return the squared norm of the vector of the node minus the mean of all nodes
+     */
+    public double getNorm(int node) {
+        return norms[node];
+    }
+
+    /**
+     * Scores and candidates of the vectors of a block, one set per task
+     */
+    private final class Block {
+        final double[] vectorTile = new double[VECTOR_BLOCK * dim];
+        final double[] nodeTile = new double[tileNodes * dim];
+        /**
+         * Best and second best score and twice the error bound of every vector
+         */
+        final double[] best = new double[VECTOR_BLOCK];
+        final double[] second = new double[VECTOR_BLOCK];
+        final double[] margin = new double[VECTOR_BLOCK];
+        /**
+         * Nodes whose scores may be the best or second best, in node order,
+         * count -1 once there were too many
+         */
+        final int[] candidates = new int[VECTOR_BLOCK * MAX_CANDIDATES];
+        final double[] scores = new double[VECTOR_BLOCK * MAX_CANDIDATES];
+        final int[] count = new int[VECTOR_BLOCK];
+    }
+
+    @Override
+    public void project(final double[][] vectors, final BMUProjection projection)
+    {
+        int blocks = (vectors.length + VECTOR_BLOCK - 1) / VECTOR_BLOCK;
+        ParallelTasks.forRange(blocks, 1, new ParallelTasks.RangeTask<RuntimeException>() {
+            public void run(int from, int to) {
+                // every task works on its own tiles
+                Block block = new Block();
+                for (int b = from; b < to; b++)
+                {
+                    int first = b * VECTOR_BLOCK;
+                    int count = Math.min(VECTOR_BLOCK, vectors.length - first);
+                    projectBlock(vectors, first, count, block, projection);
+                }
+            }
+        });
+    }
+
+    /**
+     * Projects a block of vectors: multiplies it with all tiles of nodes,
+     * collects the candidates of every vector and ranks them by their exact distances
+     */
+    private void projectBlock(double[][] vectors, int first, int count, Block block, BMUProjection projection)
+    {
+        double[] vectorTile = block.vectorTile;
+        for (int v = 0; v < count; v++)
+        {
+            double[] vector = vectors[first + v];
+            double norm = 0;
+            for (int k = 0; k < dim; k++)
+            {
+                double centered = vector[k] - mean[k];
+                vectorTile[v * dim + k] = centered;
+                norm += centered * centered;
+            }
+            double scale = Math.sqrt(norm) + maxNorm;
+            block.margin[v] = 2 * errorFactor * scale * scale;
+            block.best[v] = Double.POSITIVE_INFINITY;
+            block.second[v] = Double.POSITIVE_INFINITY;
+            block.count[v] = 0;
+        }
+
+        int nodes = codebook.getNodeCount();
+        for (int tileStart = 0; tileStart < nodes; tileStart += tileNodes)
+        {
+            int tileCount = Math.min(tileNodes, nodes - tileStart);
+            packTile(tileStart, tileCount, block.nodeTile);
+
+            int v = 0;
+            for (; v + 1 < count; v += 2)
+                scoreTwoVectors(v, tileStart, tileCount, block);
+            if (v < count)
+                scoreOneVector(v, tileStart, tileCount, block);
+        }
+
+        for (int v = 0; v < count; v++)
+        {
+            if (block.count[v] < 0)
+                findTwoBMUs(vectors[first + v], first + v, projection);
+            else
+                rankCandidates(vectors[first + v], first + v, block, v, projection);
+        }
+    }
+
+    /**
+     * Ranks the candidates of a vector by their exact distances,
+     * in node order and with the tie breaking of the node scan of BMUEngine
+     */
+    private void rankCandidates(double[] vector, int index, Block block, int v, BMUProjection projection)
+    {
+        double limit = block.second[v] + block.margin[v];
+        double mindist = Double.POSITIVE_INFINITY;
+        double seconddist = Double.POSITIVE_INFINITY;
+        int best = 0;
+        int bestX = 0;
+        int second = -1;
+        boolean found = false;
+        for (int i = v * MAX_CANDIDATES, end = i + block.count[v]; i < end; i++)
+        {
+            if (block.scores[i] > limit)
+                continue;
+            int node = block.candidates[i];
+            int x = node % x_dim;
+            double dist = codebook.distanceSquared(node, vector, seconddist);
+            if (dist < mindist || (dist == mindist && x < bestX))
+            {
+                if (found)
+                {
+                    seconddist = mindist;
+                    second = best;
+                }
+                mindist = dist;
+                best = node;
+                bestX = x;
+            }
+            else if (dist < seconddist || second < 0)
+            {
+                seconddist = dist;
+                second = node;
+            }
+            found = true;
+        }
+        projection.set(index, best, Math.sqrt(mindist), second, Math.sqrt(seconddist));
+    }
+
+    /**
+     * Copies a tile of centered nodes into panels of four nodes with their components
+     * interleaved: component k of node j of panel p is at (p * dim + k) * 4 + j.
+     * The nodes missing in the last panel are filled with zeros.
+     */
+    private void packTile(int tileStart, int tileCount, double[] nodeTile)
+    {
+        double[] vector = new double[dim];
+        int panels = (tileCount + 3) / 4;
+        for (int n = 0; n < panels * 4; n++)
+        {
+            int base = ((n / 4) * dim) * 4 + (n % 4);
+            if (n < tileCount)
+            {
+                codebook.getVector(tileStart + n, vector);
+                for (int k = 0; k < dim; k++)
+                    nodeTile[base + k * 4] = vector[k] - mean[k];
+            }
+            else
+            {
+                for (int k = 0; k < dim; k++)
+                    nodeTile[base + k * 4] = 0;
+            }
+        }
+    }
+
+    /**
+     * Scores two vectors against a tile of nodes, one panel of four nodes at a time
+     */
+    private void scoreTwoVectors(int v, int tileStart, int tileCount, Block block)
+    {
+        double[] vectorTile = block.vectorTile;
+        double[] nodeTile = block.nodeTile;
+        int x0 = v * dim;
+        int x1 = x0 + dim;
+        for (int n = 0; n < tileCount; n += 4)
+        {
+            double a00 = 0, a01 = 0, a02 = 0, a03 = 0;
+            double a10 = 0, a11 = 0, a12 = 0, a13 = 0;
+            for (int k = 0, w = n * dim; k < dim; k++, w += 4)
+            {
+                double p = vectorTile[x0 + k];
+                double q = vectorTile[x1 + k];
+                double c0 = nodeTile[w];
+                double c1 = nodeTile[w + 1];
+                double c2 = nodeTile[w + 2];
+                double c3 = nodeTile[w + 3];
+                a00 += p * c0;
+                a01 += p * c1;
+                a02 += p * c2;
+                a03 += p * c3;
+                a10 += q * c0;
+                a11 += q * c1;
+                a12 += q * c2;
+                a13 += q * c3;
+            }
+            int node = tileStart + n;
+            int valid = Math.min(4, tileCount - n);
+            offer(block, v, node, norms[node] - 2 * a00);
+            offer(block, v + 1, node, norms[node] - 2 * a10);
+            if (valid > 1)
+            {
+                offer(block, v, node + 1, norms[node + 1] - 2 * a01);
+                offer(block, v + 1, node + 1, norms[node + 1] - 2 * a11);
+            }
+            if (valid > 2)
+            {
+                offer(block, v, node + 2, norms[node + 2] - 2 * a02);
+                offer(block, v + 1, node + 2, norms[node + 2] - 2 * a12);
+            }
+            if (valid > 3)
+            {
+                offer(block, v, node + 3, norms[node + 3] - 2 * a03);
+                offer(block, v + 1, node + 3, norms[node + 3] - 2 * a13);
+            }
+        }
+    }
+
+    /**
+     * Scores a single vector against a tile of nodes
+     */
+    private void scoreOneVector(int v, int tileStart, int tileCount, Block block)
+    {
+        double[] vectorTile = block.vectorTile;
+        double[] nodeTile = block.nodeTile;
+        int x0 = v * dim;
+        for (int n = 0; n < tileCount; n += 4)
+        {
+            double a0 = 0, a1 = 0, a2 = 0, a3 = 0;
+            for (int k = 0, w = n * dim; k < dim; k++, w += 4)
+            {
+                double p = vectorTile[x0 + k];
+                a0 += p * nodeTile[w];
+                a1 += p * nodeTile[w + 1];
+                a2 += p * nodeTile[w + 2];
+                a3 += p * nodeTile[w + 3];
+            }
+            int node = tileStart + n;
+            int valid = Math.min(4, tileCount - n);
+            offer(block, v, node, norms[node] - 2 * a0);
+            if (valid > 1)
+                offer(block, v, node + 1, norms[node + 1] - 2 * a1);
+            if (valid > 2)
+                offer(block, v, node + 2, norms[node + 2] - 2 * a2);
+            if (valid > 3)
+                offer(block, v, node + 3, norms[node + 3] - 2 * a3);
+        }
+    }
+
+    /**
+     * Updates the two best scores of a vector with the score of another node and
+     * keeps the node as a candidate if its score lies within the error margin of
+     * the second best one. The nodes are offered in ascending order.
+     */
+    private void offer(Block block, int v, int node, double score)
+    {
+        int count = block.count[v];
+        if (count < 0)
+            return;
+        if (score < block.best[v])
+        {
+            block.second[v] = block.best[v];
+            block.best[v] = score;
+        }
+        else if (score < block.second[v])
+            block.second[v] = score;
+        double limit = block.second[v] + block.margin[v];
+        if (!(score <= limit))
+            return;
+        int start = v * MAX_CANDIDATES;
+        if (count == MAX_CANDIDATES)
+        {
+            // drop the candidates the better scores found since have ruled out
+            count = 0;
+            for (int i = start; i < start + MAX_CANDIDATES; i++)
+            {
+                if (block.scores[i] <= limit)
+                {
+                    block.candidates[start + count] = block.candidates[i];
+                    block.scores[start + count] = block.scores[i];
+                    count++;
+                }
+            }
+            if (count == MAX_CANDIDATES)
+            {
+                block.count[v] = -1;
+                return;
+            }
+        }
+        block.candidates[start + count] = node;
+        block.scores[start + count] = score;
+        block.count[v] = count + 1;
+    }
+}
@@ -0,0 +1,275 @@
+package org.tum.opensim.somview;
+
+import java.awt.geom.Path2D;
+
+/**
+ * The hexagons of a umatrix: the (2y-1)x(2x-1) cells of a som
+ * (@see NeighborDistances ), stored in primitive arrays instead of one
+ * object per cell. Cell c = row * columns + column shows the value
+ * distances[c] and has its six neighbors at neighbors[c * NEIGHBORS + direction].
+ *
+ * The grid is built in one pass over the cells without allocating anything
+ * per cell. The centers are computed by the factory of the hexagon size
+ * when they are needed, so the grid does not depend on the size and is
+ * kept when it changes (@see setFactory ). The hexagons are drawn as the
+ * template of the factory moved to their centers. The cell at a point is
+ * computed in closed form from the row height and the hexagon width.
+ */
+public class HexGrid {
+
+    /**
+     * Index of a neighbor that lies outside the grid
+     */
+    public static final int NO_CELL = -1;
+
+    /**
+     * Directions of the neighbors of a cell,
+     * in the order the interpolation of the contour lines used to get them
+     */
+    public static final int UPPER_LEFT = 0;
+    public static final int LOWER_LEFT = 1;
+    public static final int UPPER_RIGHT = 2;
+    public static final int LOWER_RIGHT = 3;
+    public static final int LEFT = 4;
+    public static final int RIGHT = 5;
+
+    /**
+     * Number of neighbors per cell
+     */
+    public static final int NEIGHBORS = 6;
+
+    private HexagonFactory factory;
+    private final int x_dim;
+    private final int rows;
+    private final int columns;
+    private final int[] neighbors;
+    private final double[] distances;
+
+    /**
+     * Creates the cells of a som, all of them with distance 0
+     * @param x_dim number of nodes in x direction
+     * @param y_dim number of nodes in y direction
+     * @param factory the geometry of the hexagons
+     */
+    HexGrid(int x_dim, int y_dim, HexagonFactory factory)
+    {
+        this.factory = factory;
+        this.x_dim = x_dim;
+        rows = y_dim * 2 - 1;
+        columns = x_dim * 2 - 1;
+        if ((long) rows * columns * NEIGHBORS > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The som is too large to create its umatrix.");
+        int cells = rows * columns;
+        neighbors = new int[cells * NEIGHBORS];
+        distances = new double[cells];
+
+        // the rows are shifted in the same pattern for all sizes, so the neighbors are too
+        for (int y = 0; y < rows; y++)
+        {
+            for (int x = 0; x < columns; x++)
+            {
+                int cell = y * columns + x;
+                int base = cell * NEIGHBORS;
+                neighbors[base + UPPER_LEFT] = y > 0 ? diagonal(cell, cell - columns, -1) : NO_CELL;
+                neighbors[base + LOWER_LEFT] = y + 1 < rows ? diagonal(cell, cell + columns, -1) : NO_CELL;
+                neighbors[base + UPPER_RIGHT] = y > 0 ? diagonal(cell, cell - columns, 1) : NO_CELL;
+                neighbors[base + LOWER_RIGHT] = y + 1 < rows ? diagonal(cell, cell + columns, 1) : NO_CELL;
+                neighbors[base + LEFT] = x > 0 ? cell - 1 : NO_CELL;
+                neighbors[base + RIGHT] = x + 1 < columns ? cell + 1 : NO_CELL;
+            }
+        }
+    }
+
+    /**
+     * Neighbor of a cell in the row above or below: the cell of the same
+     * column if it lies on the requested side, otherwise the one next to it
+     * @param side -1 for the left neighbor, 1 for the right one
+     */
+    private int diagonal(int cell, int sameColumn, int side)
+    {
+        if ((getCenterX(sameColumn) - getCenterX(cell)) * side > 0)
+            return sameColumn;
+        int x = sameColumn % columns + side;
+        return x >= 0 && x < columns ? sameColumn + side : NO_CELL;
+    }
+
+    /**
+     * @return number of rows of cells, 2y-1
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return number of columns of cells, 2x-1
+     */
+    public int getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return number of cells
+     */
+    public int getCellCount() {
+        return distances.length;
+    }
+
+    /**
+     * @param y row of the cell
+     * @param x column of the cell
+     * @return index of the cell
+     */
+    public int getCell(int y, int x) {
+        return y * columns + x;
+    }
+
+    /**
+     * @param x column of a node
+     * @param y row of a node
+     * @return index of the cell that shows the node
+     */
+    public int getNodeCell(int x, int y) {
+        return getCell(y * 2, x * 2);
+    }
+
+    /**
+     * @param cell index of a cell
+     * @return row of the cell
+     */
+    public int getRow(int cell) {
+        return cell / columns;
+    }
+
+    /**
+     * @param cell index of a cell
+     * @return column of the cell
+     */
+    public int getColumn(int cell) {
+        return cell % columns;
+    }
+
+    /**
+     * @param cell index of a cell
+     * @return true if the cell shows a node, otherwise it shows a distance
+     */
+    public boolean isNodeCell(int cell) {
+        return NeighborDistances.isNodeCell(getRow(cell), getColumn(cell));
+    }
+
+    /**
+     * @param cell index of a node cell
+     * @return index of the node (@see SOMMap#getNodeIndex )
+     */
+    public int getNode(int cell) {
+        return getRow(cell) / 2 * x_dim + getColumn(cell) / 2;
+    }
+
+    /**
+     * @param cell index of a cell
+     * @return x-position of its center
+     */
+    public double getCenterX(int cell) {
+        return factory.getCenterX(cell % columns, cell / columns);
+    }
+
+    /**
+     * @param cell index of a cell
+     * @return y-position of its center
+     */
+    public double getCenterY(int cell) {
+        return factory.getCenterY(cell / columns);
+    }
+
+    /**
+     * @param cell index of a cell
+     * @param direction one of the direction constants
+     * @return index of the neighbor, NO_CELL if it lies outside the grid
+     */
+    public int getNeighbor(int cell, int direction) {
+        return neighbors[cell * NEIGHBORS + direction];
+    }
+
+    /**
+     * @param cell index of a cell
+     * @return the distance between the nodes next to a distance cell,
+     *         the interpolated distance or 0 for a node cell
+     */
+    public double getDistance(int cell) {
+        return distances[cell];
+    }
+
+    /**
+     * Setter for the value a cell shows
+     */
+    void setDistance(int cell, double distance) {
+        distances[cell] = distance;
+    }
+
+    /**
+     * @return the geometry of the hexagons
+     */
+    public HexagonFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * Changes the size of the hexagons, nothing else has to be computed again
+     * @param factory the geometry of the hexagons
+     */
+    void setFactory(HexagonFactory factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Writes the outline of a cell to a path, replacing its contents
+     * @param cell index of the cell
+     * @param path the path, reused for all cells that are drawn
+     * @return the path
+     */
+    public Path2D getOutline(int cell, Path2D path) {
+        factory.outline(getCenterX(cell), getCenterY(cell), path);
+        return path;
+    }
+
+    /**
+     * Finds the cell whose hexagon contains a point, in constant time and
+     * without allocating anything. The row band the point lies in gives the
+     * row, the hexagons of a row meet at vertical edges, so the nearest
+     * center of the row gives the column. Points in the slanted upper part
+     * of a row can also belong to the row above, which is tested second.
+     * @param x x-position of the point in the coordinates of the umatrix image
+     * @param y y-position of the point
+     * @return the cell, NO_CELL if the point lies outside of all hexagons
+     */
+    public int findCell(double x, double y) {
+        int row = (int) Math.floor((y - factory.getRowTop(0)) / factory.getRowHeight());
+        int cell = findCellInRow(row, x, y);
+        return cell != NO_CELL ? cell : findCellInRow(row - 1, x, y);
+    }
+
+    /**
+     * @return the cell of a row that contains a point, NO_CELL if there is none
+     */
+    private int findCellInRow(int row, double x, double y) {
+        if (row < 0 || row >= rows) {
+            return NO_CELL;
+        }
+        int first = row * columns;
+        long column = Math.round((x - factory.getCenterX(0, row)) / factory.getHexagonWidth());
+        if (column < 0 || column >= columns) {
+            return NO_CELL;
+        }
+        int cell = first + (int) column;
+        return contains(cell, x, y) ? cell : NO_CELL;
+    }
+
+    /**
+     * @param cell index of a cell
+     * @param x x-position of a point
+     * @param y y-position of a point
+     * @return true if the point lies within the hexagon of the cell
+     */
+    public boolean contains(int cell, double x, double y) {
+        return factory.contains(getCenterX(cell), getCenterY(cell), x, y);
+    }
+}
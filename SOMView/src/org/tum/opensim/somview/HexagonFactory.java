@@ -5,20 +5,44 @@
 
 package org.tum.opensim.somview;
 
+import java.awt.Shape;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Path2D;
+import java.util.HashMap;
+import java.util.Map;
 
 
 /**
  * Factory class that produces hexagons
+ *
+ * All hexagons of one size have the same shape: the factory keeps one
+ * template hexagon centered at the origin, the hexagons of the grid are
+ * the template moved to their centers, which are computed arithmetically.
+ * There is one factory per size (@see forSize ), so switching between
+ * sizes does not create any geometry again.
  */
 public class HexagonFactory {
 
+    /**
+    * The factories that were created, by size
+    **/
+    private static final Map<Integer, HexagonFactory> factories = new HashMap<Integer, HexagonFactory>();
+
     private double tile_height;
     private double tile_width;
     private double triangle_height;
     private double vertical_offset;
 
+    /**
+    * Hexagon centered at the origin
+    **/
+    private final GeneralPath template;
+
+    /**
+    * Fills the template straight into the pixels of an image
+    **/
+    private final HexagonRasterizer rasterizer;
+
     /**
     * Contructor
     * @param s hexagon size - radius of the inscribed circle
@@ -28,17 +52,72 @@ public class HexagonFactory {
         tile_height = s * 2;
         triangle_height = s /2;
         vertical_offset = s * 3 / 2;
+        template = new GeneralPath(Path2D.WIND_NON_ZERO,6);
+        outline(0, 0, template);
+        rasterizer = new HexagonRasterizer(tile_width, (int) tile_height,
+                (int) triangle_height, (int) vertical_offset);
+    }
+
+    /**
+    * Returns the factory for a hexagon size, it is created on the first call
+    * @param s hexagon size - radius of the inscribed circle
+    * @return the factory
+    **/
+    public static synchronized HexagonFactory forSize(int s)
+    {
+        HexagonFactory factory = factories.get(s);
+        if(factory == null)
+        {
+            factory = new HexagonFactory(s);
+            factories.put(s, factory);
+        }
+        return factory;
+    }
+
+    /**
+    * The hexagon all hexagons of this size are copies of, centered at the origin.
+    * It is shared and must not be changed; to draw a hexagon translate the
+    * graphics to its center (@see getCenterX , @see getCenterY ) and fill the template.
+    * @return the template hexagon
+    **/
+    public Shape getTemplate()
+    {
+        return template;
+    }
+
+    /**
+    * The rasterizer of the hexagons of this size, for filling many of them
+    * with solid colors faster than with a Graphics2D.
+    * @return the rasterizer, it is shared
+    **/
+    public HexagonRasterizer getRasterizer()
+    {
+        return rasterizer;
     }
 
     /**
     * Given the center of a hexagon, this method
-    * will return a @see GeneralPath object that represents a hexagon
+    * will return a @see GeneralPath object that represents a hexagon.
+    * Every call creates a new path, drawing the template is cheaper.
     *
     * @param xi x-position of the center
     * @param yi y-position of the center
     * @return hexagon shaped path centered at the specified position
     **/
     public GeneralPath computeHexagonPositions(int xi, int yi)
+    {
+        GeneralPath path = new GeneralPath(Path2D.WIND_NON_ZERO,6);
+        outline(getCenterX(xi, yi), getCenterY(yi), path);
+        return path;
+    }
+
+    /**
+    * x-position of the center of a hexagon
+    * @param xi column of the hexagon
+    * @param yi row of the hexagon
+    * @return x-position of the center
+    **/
+    public double getCenterX(int xi, int yi)
     {
         // an offset for the x-coordinate has to be set 
         // according to the line in the hexagon grid
@@ -58,28 +137,73 @@ public class HexagonFactory {
         
         //xoffset has a basic value in order to get borders in the image
         x_offset += getHexagonWidth();
+        return x_offset + tile_width / 2 + xi * tile_width;
+    }
+
+    /**
+    * y-position of the center of a hexagon
+    * @param yi row of the hexagon
+    * @return y-position of the center
+    **/
+    public double getCenterY(int yi)
+    {
         double y_offset = getHexagonHeight();
-        
-        double xleft = x_offset + xi * tile_width;
-        double yuppermid = y_offset + triangle_height + yi * vertical_offset;
-        double xmid = x_offset + tile_width / 2 + xi * tile_width;
-        double ytop = y_offset + yi * vertical_offset;
-        double xright = x_offset + (xi + 1) * tile_width;
-        double ylowermid = y_offset + (yi + 1) * vertical_offset;
-        double ybottom = y_offset + tile_height + yi * vertical_offset;
+        return y_offset + yi * vertical_offset + tile_height / 2;
+    }
 
-        
-        
-        GeneralPath path = new GeneralPath(Path2D.WIND_NON_ZERO,6);
+    /**
+    * y-position of the top corners of the hexagons of a row
+    * @param yi row of the hexagons
+    * @return y-position of the top corners
+    **/
+    public double getRowTop(int yi)
+    {
+        return getCenterY(yi) - tile_height / 2;
+    }
+
+    /**
+    * Replaces the contents of a path by the outline of a hexagon,
+    * so one path can be reused for many hexagons
+    * @param centerX x-position of the center
+    * @param centerY y-position of the center
+    * @param path the path
+    **/
+    void outline(double centerX, double centerY, Path2D path)
+    {
+        double xleft = centerX - tile_width / 2;
+        double xright = centerX + tile_width / 2;
+        double ytop = centerY - tile_height / 2;
+        double yuppermid = ytop + triangle_height;
+        double ylowermid = ytop + vertical_offset;
+        double ybottom = ytop + tile_height;
+
+        path.reset();
         path.moveTo(xleft, yuppermid);
-        path.lineTo(xmid, ytop);
+        path.lineTo(centerX, ytop);
         path.lineTo(xright, yuppermid);
         path.lineTo(xright, ylowermid);
-        path.lineTo(xmid, ybottom);
+        path.lineTo(centerX, ybottom);
         path.lineTo(xleft, ylowermid);
         path.lineTo(xleft, yuppermid);
+    }
 
-        return path;
+    /**
+    * Tests whether a point lies within a hexagon
+    * @param centerX x-position of the center of the hexagon
+    * @param centerY y-position of the center of the hexagon
+    * @param x x-position of the point
+    * @param y y-position of the point
+    * @return true if the point is inside
+    **/
+    boolean contains(double centerX, double centerY, double x, double y)
+    {
+        double dx = Math.abs(x - centerX) / (tile_width / 2);
+        double ytop = centerY - tile_height / 2;
+        if (dx > 1 || y < ytop || y > ytop + tile_height)
+            return false;
+        // the slanted edges of the upper and the lower triangle
+        return y >= ytop + triangle_height * dx
+                && y <= ytop + tile_height - (tile_height - vertical_offset) * dx;
     }
 
     /**
@@ -90,6 +214,14 @@ public class HexagonFactory {
         return this.tile_height - this.triangle_height;
     }
     
+    /**
+    * Getter for the vertical distance between the centers of two rows
+    * @return distance between two rows
+    **/
+    public double getRowHeight() {
+        return this.vertical_offset;
+    }
+
     /**
     * Getter for the width of the hexagon
     * @return width of the hexagon
@@ -19,8 +19,10 @@ import java.util.List;
  */
 public class HexagonInterpolationPaint implements Paint{
 
-    private HexagonInterpolationPaintContext.PointAndColor points[];
-    private HexagonInterpolationPaintContext.PointAndColor hexCenter;
+    //the hexagons of the umatrix, their colors and the hexagon drawn with this paint
+    private HexGrid grid;
+    private int[] colors;
+    private int cell;
     //Just some parameters for the contourlines and the interplation
         //Radius that the color of the hexagon that is drawn with this paint will 
         //affect
@@ -32,14 +34,14 @@ public class HexagonInterpolationPaint implements Paint{
         //compensation value in x-direction for device coordinates
     private int compensateX;
     
-    public HexagonInterpolationPaint(HexagonInterpolationPaintContext.PointAndColor points[], 
-            HexagonInterpolationPaintContext.PointAndColor hexCenter,
+    public HexagonInterpolationPaint(HexGrid grid, int[] colors, int cell,
             int compensateX,
             double centerInterpolationRadius,
             List<Double> contourLineDists, double cLineThickness)
     {
-        this.points = points;
-        this.hexCenter = hexCenter;
+        this.grid = grid;
+        this.colors = colors;
+        this.cell = cell;
         this.centerInterpolationRadius = centerInterpolationRadius;
         this.contourLineDists = contourLineDists;
         this.cLineThickness = cLineThickness;
@@ -47,7 +49,7 @@ public class HexagonInterpolationPaint implements Paint{
     }
     
     public PaintContext createContext(ColorModel cm, Rectangle deviceBounds, Rectangle2D userBounds, AffineTransform xform, RenderingHints hints) {
-        return new HexagonInterpolationPaintContext(this.points,this.hexCenter, this.compensateX, this.centerInterpolationRadius,
+        return new HexagonInterpolationPaintContext(this.grid, this.colors, this.cell, this.compensateX, this.centerInterpolationRadius,
                 this.contourLineDists,this.cLineThickness);
     }
 
@@ -13,11 +13,13 @@ import java.util.List;
  */
 public class HexagonInterpolationPaintContext implements PaintContext{
 
-    //Positions and colors of the neighboring hexagons
-    // in case a neighbor does not exist the corresponding arrayelement is Null
-    private PointAndColor points[];
-    //Center point of the hexagon that is drawn with this paintcontext
-    private PointAndColor hexCenter;
+    //Positions and values of the hexagons of the umatrix,
+    //the neighbors of the hexagon that is drawn are read from there
+    private HexGrid grid;
+    //Colors of the hexagons (RGB), by cell
+    private int[] colors;
+    //Cell of the hexagon that is drawn with this paintcontext
+    private int cell;
     //radius around the center of the hexagon drawn with this paintcontext that is
     //affected by interpolation
     private double centerInterpolationRadius;
@@ -31,11 +33,9 @@ public class HexagonInterpolationPaintContext implements PaintContext{
     /**
     * Constructor of the HexagonInterpolationPaintContext
     *
-    * @param points Positions and colors of the neighboring hexagons.
-    *               In case a neighbor does not exist
-    *               => the corresponding array element is Null
-    * @param hexCenter position of the center of the hexagon that is 
-    *                  affected by this paintcontext
+    * @param grid positions and values of the hexagons
+    * @param colors colors of the hexagons (RGB), by cell
+    * @param cell cell of the hexagon that is affected by this paintcontext
     * @param compensateX compensation value in x-direction for device coordinates
     * @param centerInterpolationRadius radius around the center of the hexagon drawn 
     *                                  with this paintcontext that is
@@ -43,12 +43,13 @@ public class HexagonInterpolationPaintContext implements PaintContext{
     * @param contourLineDists values at which contourlines will be drawn
     * @param cLineThickness base-thickness of the contourlines
     **/
-    public HexagonInterpolationPaintContext(PointAndColor points[], PointAndColor hexCenter, 
+    public HexagonInterpolationPaintContext(HexGrid grid, int[] colors, int cell,
             int compensateX,
             double centerInterpolationRadius,
             List<Double> contourLineDists, double cLineThickness) {
-        this.points = points;
-        this.hexCenter = hexCenter;
+        this.grid = grid;
+        this.colors = colors;
+        this.cell = cell;
         this.centerInterpolationRadius = centerInterpolationRadius;
         this.contourLineDists = contourLineDists;
         this.cLineThickness = cLineThickness;
@@ -78,42 +79,48 @@ public class HexagonInterpolationPaintContext implements PaintContext{
         //compansate x-direction device coordinates
         x -= compensateX;
         
-        //Compute the distance between the centerpoint and all the
-        //centerpoints of the neighboring hexagons
-        Double distsToCenter[] = new Double[points.length];
-        for(int p = 0; p < points.length; p++)
+        //The neighbors that exist, their centers, colors and values
+        double centerX = grid.getCenterX(cell);
+        double centerY = grid.getCenterY(cell);
+        int[] neighbors = new int[HexGrid.NEIGHBORS];
+        int count = 0;
+        for(int p = 0; p < HexGrid.NEIGHBORS; p++)
         {
-            if(points[p] == null)
+            int neighbor = grid.getNeighbor(cell, p);
+            if(neighbor != HexGrid.NO_CELL)
             {
-                distsToCenter[p] = null;
-            }else{
-                distsToCenter[p] = points[p].point.distance(hexCenter.point);
+                neighbors[count++] = neighbor;
             }
         }
+
+        //Compute the distance between the centerpoint and all the
+        //centerpoints of the neighboring hexagons
+        double distsToCenter[] = new double[count];
+        for(int p = 0; p < count; p++)
+        {
+            distsToCenter[p] = Point2D.distance(grid.getCenterX(neighbors[p]),
+                    grid.getCenterY(neighbors[p]), centerX, centerY);
+        }
+        int centerColor = colors[cell];
         
         //For every Pixel: Interpolate
+        double distsToPoint[] = new double[count];
         for (int j = 0; j < h; j++) {
             for (int i = 0; i < w; i++) {
-                Double distsToPoint[] = new Double[points.length];
                 double normFactor = 0.0;
-                for(int p = 0; p < points.length; p++)
+                for(int p = 0; p < count; p++)
                 {
-                    //Don't take "null" neighbors into account
-                    if(points[p] == null)
-                    {
-                        distsToPoint[p] = null;
-                    }else{
-                        //Compute the ratios between the distance of the
-                        //pixel to the heyagon center and the distances between the
-                        //hexagon center and the respective neighbor
-                        //center        pixel         neighbor
-                        //   |-----------o-----------------|
-                        //   |_____________________________| center to neighbor
-                        //   |___________| center to pixel
-                        double dist = points[p].point.distance(x+i,y+j);
-                        distsToPoint[p] = Math.max(1.0 - (dist / distsToCenter[p]),0.0);
-                        normFactor += distsToPoint[p];
-                    }
+                    //Compute the ratios between the distance of the
+                    //pixel to the heyagon center and the distances between the
+                    //hexagon center and the respective neighbor
+                    //center        pixel         neighbor
+                    //   |-----------o-----------------|
+                    //   |_____________________________| center to neighbor
+                    //   |___________| center to pixel
+                    double dist = Point2D.distance(grid.getCenterX(neighbors[p]),
+                            grid.getCenterY(neighbors[p]), x+i, y+j);
+                    distsToPoint[p] = Math.max(1.0 - (dist / distsToCenter[p]),0.0);
+                    normFactor += distsToPoint[p];
                 }
                 
                 
@@ -125,39 +132,31 @@ public class HexagonInterpolationPaintContext implements PaintContext{
                 data[base + 2] = 0;
                 data[base + 3] = 255;
 
-                double centerToPointDist = Math.max(1.0 - (hexCenter.point.distance(x+i,y+j)/centerInterpolationRadius), 0.0f);
+                double centerToPointDist = Math.max(1.0 - (Point2D.distance(centerX, centerY, x+i, y+j)
+                        / centerInterpolationRadius), 0.0f);
                 normFactor += centerToPointDist;
                 
                 
                 //Interpolate between the colors of the neighbors
                 //using the previously computed ratios
-                for(int p = 0; p < points.length; p++)
+                for(int p = 0; p < count; p++)
                 {
-                    if(points[p] != null)
-                    {
-                        distsToPoint[p] /= normFactor;
-                        data[base + 0] += (int)(distsToPoint[p].doubleValue()
-                                * (double)points[p].color.getRed());
-                        data[base + 1] += (int)(distsToPoint[p].doubleValue()
-                                * (double)points[p].color.getGreen());
-                        data[base + 2] += (int)(distsToPoint[p].doubleValue()
-                                * (double)points[p].color.getBlue());
-                        //interpolate distance
-                        distanceVal += (distsToPoint[p].doubleValue()
-                                * points[p].value);
-                    }
+                    int color = colors[neighbors[p]];
+                    distsToPoint[p] /= normFactor;
+                    data[base + 0] += (int)(distsToPoint[p] * (double)((color >> 16) & 0xFF));
+                    data[base + 1] += (int)(distsToPoint[p] * (double)((color >> 8) & 0xFF));
+                    data[base + 2] += (int)(distsToPoint[p] * (double)(color & 0xFF));
+                    //interpolate distance
+                    distanceVal += distsToPoint[p] * grid.getDistance(neighbors[p]);
                 }
                 //Also take the color of this hexagon into account
                 //use the distance from the hexagon center to the current pixel 
                 //for interpolation
                 centerToPointDist /= normFactor;
-                data[base + 0] += (int)(centerToPointDist
-                        * (double)hexCenter.color.getRed());
-                data[base + 1] += (int)(centerToPointDist
-                        * (double)hexCenter.color.getGreen());
-                data[base + 2] += (int)(centerToPointDist
-                        * (double)hexCenter.color.getBlue());
-                distanceVal += centerToPointDist * hexCenter.value;
+                data[base + 0] += (int)(centerToPointDist * (double)((centerColor >> 16) & 0xFF));
+                data[base + 1] += (int)(centerToPointDist * (double)((centerColor >> 8) & 0xFF));
+                data[base + 2] += (int)(centerToPointDist * (double)(centerColor & 0xFF));
+                distanceVal += centerToPointDist * grid.getDistance(cell);
 
                 //Finally, draw the contourlines
                 //iterate over all the countourline value and draw pixels black
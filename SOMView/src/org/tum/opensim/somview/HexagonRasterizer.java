@@ -0,0 +1,122 @@
+package org.tum.opensim.somview;
+
+/**
+ * Fills hexagons of one size straight into the pixels of an image of
+ * TYPE_INT_ARGB, without going through the shape pipeline of Graphics2D.
+ *
+ * The result is the same as filling the template of the factory moved to the
+ * center with a solid color (@see HexagonFactory#getTemplate ), so both can be
+ * mixed in one image. Like the fill loop of Java2D the corners are converted to
+ * fixed point numbers with FRACTION_BITS bits after the point, a pixel is
+ * filled if the point at its upper left corner lies inside and the x-position
+ * of a slanted edge advances by the same truncated step on every scanline.
+ *
+ * The centers of all rows lie on whole pixels, so the scanlines of a hexagon
+ * always cross the same edges: the rows of the upper triangle, of the sides
+ * and of the lower triangle are computed once per size. The x-positions of the
+ * corners differ by fractions of a pixel from column to column, they are
+ * computed per hexagon and each scanline is one Arrays.fill.
+ */
+public class HexagonRasterizer {
+
+    /**
+     * Bits after the point of the fixed point numbers
+     */
+    private static final int FRACTION_BITS = 10;
+    private static final int ONE = 1 << FRACTION_BITS;
+
+    /**
+     * x-position of the left and the right corners relative to the center,
+     * as they are stored in the template
+     */
+    private final float left;
+    private final float right;
+    /**
+     * Number of scanlines of the hexagon, of the upper triangle and
+     * from the top corner down to the lower triangle
+     */
+    private final int height;
+    private final int upper;
+    private final int lower;
+
+    /**
+     * Prepares the rasterization of one hexagon size
+     * @param width width of the hexagon
+     * @param height height of the hexagon in whole pixels
+     * @param upper height of the upper triangle
+     * @param lower distance between the top corner and the lower corners on the sides
+     */
+    HexagonRasterizer(double width, int height, int upper, int lower)
+    {
+        left = (float) (-width / 2);
+        right = (float) (width / 2);
+        this.height = height;
+        this.upper = upper;
+        this.lower = lower;
+    }
+
+    /**
+     * Fills a hexagon
+     * @param pixels the pixels of the image, one int per pixel in rows
+     * @param width width of the image
+     * @param imageHeight height of the image, the hexagon is clipped to it
+     * @param centerX x-position of the center of the hexagon
+     * @param centerY y-position of the center of the hexagon, a whole pixel
+     * @param color ARGB value of the color
+     */
+    public void fill(int[] pixels, int width, int imageHeight, double centerX, double centerY, int color)
+    {
+        // the corners like Java2D gets them: the template coordinates plus the
+        // center as floats, then in fixed point
+        int x = fixed((float) centerX);
+        int l = fixed((float) (left + centerX));
+        int r = fixed((float) (right + centerX));
+        int top = (int) centerY - height / 2;
+        // the upper triangle starts at the top corner, the sides and the lower
+        // triangle at the corners on the left and the right
+        if (upper > 0)
+            fillRows(pixels, width, imageHeight, top, 0, upper, x, (l - x) / upper, x, (r - x) / upper, color);
+        fillRows(pixels, width, imageHeight, top, upper, lower, l, 0, r, 0, color);
+        int bottom = height - lower;
+        fillRows(pixels, width, imageHeight, top, lower, height, l, (x - l) / bottom, r, (x - r) / bottom, color);
+    }
+
+    /**
+     * Fills the scanlines between two edges
+     * @param top row of the image of the top corner
+     * @param first first scanline, relative to the top corner
+     * @param end scanline after the last one
+     * @param fromX fixed point x-position of the left edge on the first scanline
+     * @param fromStep fixed point step of the left edge per scanline
+     * @param toX fixed point x-position of the right edge on the first scanline
+     * @param toStep fixed point step of the right edge per scanline
+     */
+    private static void fillRows(int[] pixels, int width, int imageHeight, int top, int first, int end,
+            int fromX, int fromStep, int toX, int toStep, int color)
+    {
+        for (int i = Math.max(first, -top); i < end && top + i < imageHeight; i++)
+        {
+            int k = i - first;
+            int from = Math.max(0, ceil(fromX + k * fromStep));
+            int to = Math.min(width, ceil(toX + k * toStep));
+            if (from < to)
+            {
+                int row = (top + i) * width;
+                java.util.Arrays.fill(pixels, row + from, row + to, color);
+            }
+        }
+    }
+
+    private static int fixed(float coordinate)
+    {
+        return (int) (coordinate * ONE);
+    }
+
+    /**
+     * First pixel whose upper left corner lies at or right of a fixed point x-position
+     */
+    private static int ceil(int fixed)
+    {
+        return (fixed + ONE - 1) >> FRACTION_BITS;
+    }
+}
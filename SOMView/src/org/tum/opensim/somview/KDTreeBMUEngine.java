@@ -0,0 +1,398 @@
+package org.tum.opensim.somview;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Engine that indexes the nodes in a k-d tree, so a BMU query only has to look
+ * at the nodes in the buckets around the vector. The results are exact and the
+ * same as those of a linear scan.
+ *
+ * Every inner node of the tree splits its nodes at the median of the component
+ * with the largest spread, the leaves hold at most bucketSize nodes. A query
+ * descends to the leaf of the vector first and only visits the other side of a
+ * split if the box behind it can still contain a nearer node
+ * (incremental distance of Arya and Mount).
+ *
+ * The value vectors of a SOM lie close to a two dimensional surface, so the tree
+ * usually works well for dimensions far beyond the usual limits of k-d trees.
+ * If it does not, i.e. the queries visit most of the nodes anyway, the engine
+ * notices that after some queries and falls back to a linear scan.
+ *
+ * The tree also answers range queries (all nodes within a radius of a vector),
+ * which only visit the boxes that intersect the sphere.
+ */
+public class KDTreeBMUEngine extends BMUEngine {
+
+    /**
+     * Number of nodes from which on the tree is selected automatically
+     */
+    public static final int MIN_NODES = 4096;
+
+    /**
+     * Default maximal number of nodes in a leaf
+     */
+    public static final int DEFAULT_BUCKET_SIZE = 16;
+
+    /**
+     * Number of queries after which the engine decides whether the tree is useful
+     */
+    private static final int PROBE_QUERIES = 64;
+
+    /**
+     * Fraction of the nodes a query may visit on average for the tree to be useful
+     */
+    private static final double USEFUL_FRACTION = 0.5;
+
+    /**
+     * Number of nodes the spread of the components is estimated from
+     */
+    private static final int SPREAD_SAMPLE = 128;
+
+    /**
+     * The box distances are computed from the components in another order than the
+     * distances of the nodes, and for float and quantized codebooks in other arithmetic,
+     * so a box is only skipped if it lies farther away by more than this fraction
+     * of the distances involved
+     */
+    private static final double ROUNDING_ERROR = 1e-6;
+
+    /**
+     * Engine the distances are computed with, and the linear scan falls back to
+     */
+    private final BMUEngine kernel;
+    private final int dim;
+    private final int bucketSize;
+
+    /**
+     * Nodes of the codebook in the order of the leaves
+     */
+    private final int[] order;
+
+    // the tree nodes, the root is 0
+    private int treeSize;
+    private int[] splitComponent;   // -1 for leaves
+    private double[] splitValue;
+    private int[] lower;            // child with the values <= splitValue
+    private int[] upper;            // child with the values >= splitValue
+    private int[] start;            // first node of a leaf in order
+    private int[] end;              // end of a leaf in order
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong visited = new AtomicLong();
+    private volatile boolean decided;
+    private volatile boolean useless;
+
+    /**
+     * Builds the tree with the default bucket size
+     * @param codebook the codebook the distances are computed for
+     * @param x_dim number of nodes in x direction of the SOM
+     */
+    public KDTreeBMUEngine(Codebook codebook, int x_dim)
+    {
+        this(codebook, x_dim, DEFAULT_BUCKET_SIZE);
+    }
+
+    /**
+     * Builds the tree
+     * @param codebook the codebook the distances are computed for
+     * @param x_dim number of nodes in x direction of the SOM
+     * @param bucketSize maximal number of nodes in a leaf
+     */
+    public KDTreeBMUEngine(Codebook codebook, int x_dim, int bucketSize)
+    {
+        super(codebook, x_dim);
+        if (bucketSize < 1)
+            throw new IllegalArgumentException("The bucket size has to be positive.");
+        this.kernel = LaneBMUEngine.supports(codebook)
+                ? new LaneBMUEngine(codebook, x_dim) : new ScalarBMUEngine(codebook, x_dim);
+        this.dim = codebook.getDim();
+        this.bucketSize = bucketSize;
+
+        int nodes = codebook.getNodeCount();
+        order = new int[nodes];
+        for (int i = 0; i < nodes; i++)
+            order[i] = i;
+        // the leaves hold more than bucketSize / 2 nodes, so there are less than 2 * nodes / bucketSize of them
+        int capacity = 4 * Math.max(1, (nodes + bucketSize - 1) / bucketSize) + 1;
+        splitComponent = new int[capacity];
+        splitValue = new double[capacity];
+        lower = new int[capacity];
+        upper = new int[capacity];
+        start = new int[capacity];
+        end = new int[capacity];
+        build(0, nodes);
+    }
+
+    @Override
+    public int getType() {
+        return KDTREE;
+    }
+
+    /**
+     * @return maximal number of nodes in a leaf
+     */
+    public int getBucketSize() {
+        return bucketSize;
+    }
+
+    /**
+     * @return true if the queries turned out to visit most nodes and a linear scan is used instead of the tree
+     */
+    public boolean isFallingBack() {
+        return useless;
+    }
+
+    @Override
+    protected double distanceSquared(int node, double[] vector, double bound) {
+        return kernel.distanceSquared(node, vector, bound);
+    }
+
+    @Override
+    public double distanceSquared(int a, int b) {
+        return kernel.distanceSquared(a, b);
+    }
+
+    @Override
+    public BestMatchingUnit findBMU(double[] vector)
+    {
+        if (useless)
+            return kernel.findBMU(vector);
+        return findNearest(vector, 1)[0];
+    }
+
+    @Override
+    public void findTwoBMUs(double[] vector, int index, BMUProjection projection)
+    {
+        if (useless || codebook.getNodeCount() < 2)
+        {
+            kernel.findTwoBMUs(vector, index, projection);
+            return;
+        }
+        BestMatchingUnit[] two = findNearest(vector, 2);
+        projection.set(index, two[0].getNode(), two[0].getDistance(), two[1].getNode(), two[1].getDistance());
+    }
+
+    @Override
+    public BestMatchingUnit[] findNearest(double[] vector, int k)
+    {
+        if (useless)
+            return kernel.findNearest(vector, k);
+        NearestNodes nearest = new NearestNodes(Math.min(k, codebook.getNodeCount()), x_dim);
+        int count = search(0, vector, new double[dim], 0, nearest);
+        learn(count);
+        return nearest.toArray();
+    }
+
+    /**
+     * Adds 1 to the count of every node within a radius of a vector
+     * @param vector the query
+     * @param radius the radius
+     * @param counts count per node
+     * @return number of nodes whose distance was computed
+     */
+    int countWithin(double[] vector, double radius, int[] counts)
+    {
+        return countWithin(0, vector, new double[dim], 0, radius * radius, counts);
+    }
+
+    /**
+     * Builds the subtree of the nodes order[from,to)
+     * @return index of the root of the subtree
+     */
+    private int build(int from, int to)
+    {
+        int index = treeSize++;
+        start[index] = from;
+        end[index] = to;
+        splitComponent[index] = -1;
+        if (to - from <= bucketSize)
+            return index;
+
+        int component = widestComponent(from, to);
+        if (component < 0)
+            return index; // all nodes are equal
+        int middle = (from + to) >>> 1;
+        select(from, to, middle, component);
+        splitComponent[index] = component;
+        splitValue[index] = codebook.get(order[middle], component);
+        int low = build(from, middle);
+        int high = build(middle, to);
+        lower[index] = low;
+        upper[index] = high;
+        return index;
+    }
+
+    /**
+     * @return the component with the largest spread among a sample of the nodes order[from,to),
+     *         -1 if all of them are equal
+     */
+    private int widestComponent(int from, int to)
+    {
+        int step = Math.max(1, (to - from) / SPREAD_SAMPLE);
+        int best = -1;
+        double bestSpread = 0;
+        for (int c = 0; c < dim; c++)
+        {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = from; i < to; i += step)
+            {
+                double value = codebook.get(order[i], c);
+                if (value < min)
+                    min = value;
+                if (value > max)
+                    max = value;
+            }
+            if (max - min > bestSpread)
+            {
+                bestSpread = max - min;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Rearranges order[from,to) such that the node at position k has the k-th smallest
+     * value of a component, with smaller or equal values before and greater or equal values after it
+     */
+    private void select(int from, int to, int k, int component)
+    {
+        int left = from;
+        int right = to - 1;
+        while (right > left)
+        {
+            double pivot = codebook.get(order[(left + right) >>> 1], component);
+            int i = left;
+            int j = right;
+            while (i <= j)
+            {
+                while (codebook.get(order[i], component) < pivot)
+                    i++;
+                while (codebook.get(order[j], component) > pivot)
+                    j--;
+                if (i <= j)
+                {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j)
+                right = j;
+            else if (k >= i)
+                left = i;
+            else
+                return;
+        }
+    }
+
+    /**
+     * Searches a subtree
+     * @param index root of the subtree
+     * @param vector the query
+     * @param offsets per component: distance between the query and the box of the subtree
+     * @param boxDistance squared distance between the query and the box of the subtree
+     * @param nearest the nodes found so far
+     * @return number of nodes whose distance was computed
+     */
+    private int search(int index, double[] vector, double[] offsets, double boxDistance, NearestNodes nearest)
+    {
+        int component = splitComponent[index];
+        if (component < 0)
+        {
+            for (int i = start[index]; i < end[index]; i++)
+            {
+                int node = order[i];
+                nearest.offer(node, kernel.distanceSquared(node, vector, nearest.bound()));
+            }
+            return end[index] - start[index];
+        }
+
+        double diff = vector[component] - splitValue[index];
+        int near = diff <= 0 ? lower[index] : upper[index];
+        int far = diff <= 0 ? upper[index] : lower[index];
+        int count = search(near, vector, offsets, boxDistance, nearest);
+
+        // the box of the far side is at least |diff| away in this component;
+        // equal distances are visited as well, they may win the tie breaking
+        double old = offsets[component];
+        double farDistance = boxDistance - old * old + diff * diff;
+        if (mayContain(farDistance, nearest.bound()))
+        {
+            offsets[component] = diff;
+            count += search(far, vector, offsets, farDistance, nearest);
+            offsets[component] = old;
+        }
+        return count;
+    }
+
+    /**
+     * Counts the nodes of a subtree within a radius
+     * @param index root of the subtree
+     * @param vector the query
+     * @param offsets per component: distance between the query and the box of the subtree
+     * @param boxDistance squared distance between the query and the box of the subtree
+     * @param radiusSquared the squared radius
+     * @param counts count per node
+     * @return number of nodes whose distance was computed
+     */
+    private int countWithin(int index, double[] vector, double[] offsets, double boxDistance,
+            double radiusSquared, int[] counts)
+    {
+        int component = splitComponent[index];
+        if (component < 0)
+        {
+            for (int i = start[index]; i < end[index]; i++)
+            {
+                int node = order[i];
+                if (kernel.distanceSquared(node, vector, radiusSquared) <= radiusSquared)
+                    counts[node]++;
+            }
+            return end[index] - start[index];
+        }
+
+        double diff = vector[component] - splitValue[index];
+        int near = diff <= 0 ? lower[index] : upper[index];
+        int far = diff <= 0 ? upper[index] : lower[index];
+        int count = countWithin(near, vector, offsets, boxDistance, radiusSquared, counts);
+
+        double old = offsets[component];
+        double farDistance = boxDistance - old * old + diff * diff;
+        if (mayContain(farDistance, radiusSquared))
+        {
+            offsets[component] = diff;
+            count += countWithin(far, vector, offsets, farDistance, radiusSquared, counts);
+            offsets[component] = old;
+        }
+        return count;
+    }
+
+    /**
+     * @return false if a box at a squared distance from the query lies beyond a squared limit,
+     *         allowing for rounding errors
+     */
+    private static boolean mayContain(double boxDistance, double limit)
+    {
+        return boxDistance - ROUNDING_ERROR * (boxDistance + limit) <= limit;
+    }
+
+    /**
+     * Keeps track of the number of visited nodes per query during the first queries
+     * and switches to the linear scan if the tree does not pay off
+     */
+    private void learn(int count)
+    {
+        if (decided)
+            return;
+        long n = queries.incrementAndGet();
+        long total = visited.addAndGet(count);
+        if (n >= PROBE_QUERIES)
+        {
+            useless = total > USEFUL_FRACTION * n * codebook.getNodeCount();
+            decided = true;
+        }
+    }
+}
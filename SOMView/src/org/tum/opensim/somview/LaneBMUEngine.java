@@ -0,0 +1,179 @@
+package org.tum.opensim.somview;
+
+/**
+ * Engine for codebooks stored in heap arrays (DoubleCodebook, FloatCodebook).
+ *
+ * The distance kernel processes LANES components per step into independent
+ * accumulators. A plain loop adds every component to the same sum and each
+ * addition has to wait for the previous one; with independent accumulators
+ * the additions overlap in the pipeline and the JIT can keep the lanes in
+ * vector registers. The bound of the early abandoning is checked once per step,
+ * with the lanes added up in the same order as for the final sum: adding the
+ * remaining (non negative) components can then only increase it, so a node is
+ * never abandoned whose full distance would be at most the bound.
+ */
+public class LaneBMUEngine extends BMUEngine {
+
+    /**
+     * Number of independent accumulators
+     */
+    static final int LANES = 4;
+
+    /**
+     * Number of components processed per step (two per lane)
+     */
+    private static final int STEP = 2 * LANES;
+
+    private final double[] doubles;
+    private final float[] floats;
+    private final int dim;
+
+    /**
+     * Constructor
+     * @param codebook a codebook that is supported, @see supports(Codebook)
+     * @param x_dim number of nodes in x direction of the SOM
+     */
+    public LaneBMUEngine(Codebook codebook, int x_dim)
+    {
+        super(codebook, x_dim);
+        if (!supports(codebook))
+            throw new IllegalArgumentException("The codebook is not stored in a heap array.");
+        doubles = codebook instanceof DoubleCodebook ? ((DoubleCodebook) codebook).getData() : null;
+        floats = codebook instanceof FloatCodebook ? ((FloatCodebook) codebook).getData() : null;
+        dim = codebook.getDim();
+    }
+
+    /**
+     * @param codebook a codebook
+     * @return true if this engine can compute the distances of the codebook
+     */
+    public static boolean supports(Codebook codebook)
+    {
+        return codebook instanceof DoubleCodebook || codebook instanceof FloatCodebook;
+    }
+
+    @Override
+    public int getType() {
+        return BMUEngine.LANES;
+    }
+
+    @Override
+    protected double distanceSquared(int node, double[] vector, double bound) {
+        if (doubles != null)
+            return distanceSquared(doubles, node * dim, vector, 0, dim, bound);
+        return distanceSquared(floats, node * dim, vector, dim, bound);
+    }
+
+    @Override
+    public double distanceSquared(int a, int b) {
+        if (doubles != null)
+            return distanceSquared(doubles, a * dim, doubles, b * dim, dim, Double.POSITIVE_INFINITY);
+        return distanceSquared(floats, a * dim, floats, b * dim, dim);
+    }
+
+    /**
+     * Squared euclidean distance between two vectors stored in arrays,
+     * stops once the sum exceeds a bound
+     * @param a array containing the first vector
+     * @param offsetA position of the first vector in a
+     * @param b array containing the second vector
+     * @param offsetB position of the second vector in b
+     * @param length number of components
+     * @param bound distances greater than this are of no interest
+     * @return the squared distance if it is at most bound, otherwise some value greater than bound
+     */
+    static double distanceSquared(double[] a, int offsetA, double[] b, int offsetB, int length, double bound)
+    {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i <= length - STEP; i += STEP)
+        {
+            int ia = offsetA + i;
+            int ib = offsetB + i;
+            double d0 = a[ia] - b[ib];
+            double d1 = a[ia + 1] - b[ib + 1];
+            double d2 = a[ia + 2] - b[ib + 2];
+            double d3 = a[ia + 3] - b[ib + 3];
+            double d4 = a[ia + 4] - b[ib + 4];
+            double d5 = a[ia + 5] - b[ib + 5];
+            double d6 = a[ia + 6] - b[ib + 6];
+            double d7 = a[ia + 7] - b[ib + 7];
+            s0 += d0 * d0 + d4 * d4;
+            s1 += d1 * d1 + d5 * d5;
+            s2 += d2 * d2 + d6 * d6;
+            s3 += d3 * d3 + d7 * d7;
+            double partial = (s0 + s1) + (s2 + s3);
+            if (partial > bound)
+                return partial;
+        }
+        for (; i < length; i++)
+        {
+            double d = a[offsetA + i] - b[offsetB + i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Squared euclidean distance between a vector stored in a float array
+     * and a vector, stops once the sum exceeds a bound
+     */
+    private static double distanceSquared(float[] a, int offsetA, double[] b, int length, double bound)
+    {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i <= length - STEP; i += STEP)
+        {
+            int ia = offsetA + i;
+            double d0 = a[ia] - b[i];
+            double d1 = a[ia + 1] - b[i + 1];
+            double d2 = a[ia + 2] - b[i + 2];
+            double d3 = a[ia + 3] - b[i + 3];
+            double d4 = a[ia + 4] - b[i + 4];
+            double d5 = a[ia + 5] - b[i + 5];
+            double d6 = a[ia + 6] - b[i + 6];
+            double d7 = a[ia + 7] - b[i + 7];
+            s0 += d0 * d0 + d4 * d4;
+            s1 += d1 * d1 + d5 * d5;
+            s2 += d2 * d2 + d6 * d6;
+            s3 += d3 * d3 + d7 * d7;
+            double partial = (s0 + s1) + (s2 + s3);
+            if (partial > bound)
+                return partial;
+        }
+        for (; i < length; i++)
+        {
+            double d = a[offsetA + i] - b[i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * Squared euclidean distance between two vectors stored in float arrays
+     */
+    private static double distanceSquared(float[] a, int offsetA, float[] b, int offsetB, int length)
+    {
+        double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i <= length - LANES; i += LANES)
+        {
+            int ia = offsetA + i;
+            int ib = offsetB + i;
+            double d0 = (double) a[ia] - b[ib];
+            double d1 = (double) a[ia + 1] - b[ib + 1];
+            double d2 = (double) a[ia + 2] - b[ib + 2];
+            double d3 = (double) a[ia + 3] - b[ib + 3];
+            s0 += d0 * d0;
+            s1 += d1 * d1;
+            s2 += d2 * d2;
+            s3 += d3 * d3;
+        }
+        for (; i < length; i++)
+        {
+            double d = (double) a[offsetA + i] - b[offsetB + i];
+            s0 += d * d;
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
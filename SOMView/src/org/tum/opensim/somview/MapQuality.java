@@ -0,0 +1,97 @@
+package org.tum.opensim.somview;
+
+/**
+ * Quality measures of a SOM for a data set (@see SOMMap#computeQuality ):
+ * <ul>
+ * <li>quantization error: mean distance between a vector and its BMU</li>
+ * <li>topographic error: fraction of the vectors whose best and second best
+ *     matching units are not neighbors on the grid</li>
+ * </ul>
+ * Both are also available per node, over the vectors the node is the BMU of,
+ * in [y][x] layout like the hit counts of a trajectory.
+ */
+public class MapQuality {
+
+    private final int vectors;
+    private final double quantizationError;
+    private final double topographicError;
+    private final int[][] hits;
+    private final double[][] nodeQuantizationErrors;
+    private final double[][] nodeTopographicErrors;
+
+    /**
+     * @param x_dim number of nodes in x direction
+     * @param hits number of vectors per node
+     * @param distanceSums sum of the distances of the vectors per node
+     * @param topographicErrors number of vectors per node whose second best unit is not a neighbor
+     */
+    MapQuality(int x_dim, int[] hits, double[] distanceSums, int[] topographicErrors)
+    {
+        int y_dim = hits.length / x_dim;
+        this.hits = new int[y_dim][x_dim];
+        nodeQuantizationErrors = new double[y_dim][x_dim];
+        nodeTopographicErrors = new double[y_dim][x_dim];
+        int count = 0;
+        double distanceSum = 0;
+        int errors = 0;
+        for (int node = 0; node < hits.length; node++)
+        {
+            int x = node % x_dim;
+            int y = node / x_dim;
+            this.hits[y][x] = hits[node];
+            count += hits[node];
+            distanceSum += distanceSums[node];
+            errors += topographicErrors[node];
+            if (hits[node] > 0)
+            {
+                nodeQuantizationErrors[y][x] = distanceSums[node] / hits[node];
+                nodeTopographicErrors[y][x] = (double) topographicErrors[node] / hits[node];
+            }
+        }
+        vectors = count;
+        quantizationError = count == 0 ? 0 : distanceSum / count;
+        topographicError = count == 0 ? 0 : (double) errors / count;
+    }
+
+    /**
+     * @return number of vectors the measures were computed for
+     */
+    public int getVectorCount() {
+        return vectors;
+    }
+
+    /**
+     * @return mean distance between a vector and its BMU
+     */
+    public double getQuantizationError() {
+        return quantizationError;
+    }
+
+    /**
+     * @return fraction of the vectors whose best and second best matching units are not neighbors
+     */
+    public double getTopographicError() {
+        return topographicError;
+    }
+
+    /**
+     * @return number of vectors per node, [y][x]
+     */
+    public int[][] getHits() {
+        return hits;
+    }
+
+    /**
+     * @return mean distance of the vectors per node, [y][x], 0 for nodes without vectors
+     */
+    public double[][] getNodeQuantizationErrors() {
+        return nodeQuantizationErrors;
+    }
+
+    /**
+     * @return topographic error of the vectors per node, [y][x], 0 for nodes without vectors
+     */
+    public double[][] getNodeTopographicErrors() {
+        return nodeTopographicErrors;
+    }
+}
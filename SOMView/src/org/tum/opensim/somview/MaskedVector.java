@@ -0,0 +1,59 @@
+package org.tum.opensim.somview;
+
+/**
+ * A value vector with missing components (NaN) and/or weighted components,
+ * prepared for the weighted distance kernel of Codebook: missing components
+ * get the weight 0 and the value 0, so the kernel needs no branch per component.
+ */
+final class MaskedVector {
+
+    /**
+     * The components, 0 for the missing ones
+     */
+    final double[] values;
+
+    /**
+     * The weight of every component, 0 for the missing ones
+     */
+    final double[] weights;
+
+    private MaskedVector(double[] values, double[] weights)
+    {
+        this.values = values;
+        this.weights = weights;
+    }
+
+    /**
+     * @param vector a value vector, missing components are NaN
+     * @param weights weight of every component, null if all of them are 1
+     * @return the prepared vector, null if the vector has no missing components
+     *         and the components are not weighted, i.e. the plain distance applies
+     */
+    static MaskedVector prepare(double[] vector, double[] weights)
+    {
+        if (weights == null && !hasMissing(vector))
+            return null;
+        double[] values = new double[vector.length];
+        double[] mask = new double[vector.length];
+        for (int i = 0; i < vector.length; i++)
+        {
+            boolean missing = Double.isNaN(vector[i]);
+            values[i] = missing ? 0 : vector[i];
+            mask[i] = missing ? 0 : (weights == null ? 1 : weights[i]);
+        }
+        return new MaskedVector(values, mask);
+    }
+
+    /**
+     * @return true if some component of the vector is missing (NaN)
+     */
+    static boolean hasMissing(double[] vector)
+    {
+        for (int i = 0; i < vector.length; i++)
+        {
+            if (Double.isNaN(vector[i]))
+                return true;
+        }
+        return false;
+    }
+}
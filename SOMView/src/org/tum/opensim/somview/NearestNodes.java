@@ -0,0 +1,129 @@
+package org.tum.opensim.somview;
+
+/**
+ * Collects the k nodes nearest to a vector. Of several nodes with the same
+ * distance the one with the smaller x and then the smaller y "coordinate" is nearer,
+ * like in the node scan of BMUEngine.
+ * The candidates are kept in a max-heap, so the worst of them is known at any time.
+ */
+final class NearestNodes {
+
+    private final int k;
+    private final int x_dim;
+    private final int[] nodes;
+    private final double[] distances;
+    private int size;
+
+    /**
+     * @param k number of nodes to collect
+     * @param x_dim number of nodes in x direction of the SOM
+     */
+    NearestNodes(int k, int x_dim)
+    {
+        this.k = k;
+        this.x_dim = x_dim;
+        nodes = new int[k];
+        distances = new double[k];
+    }
+
+    /**
+     * @return squared distance a node has to be at most to be collected
+     */
+    double bound()
+    {
+        return size < k ? Double.POSITIVE_INFINITY : distances[0];
+    }
+
+    /**
+     * Offers a node
+     * @param node index of the node
+     * @param distance squared distance of the node, may be greater than the true one if it exceeds bound()
+     */
+    void offer(int node, double distance)
+    {
+        if (size < k)
+        {
+            nodes[size] = node;
+            distances[size] = distance;
+            siftUp(size++);
+        }
+        else if (farther(nodes[0], distances[0], node, distance))
+        {
+            nodes[0] = node;
+            distances[0] = distance;
+            siftDown(0);
+        }
+    }
+
+    /**
+     * @return the collected nodes, nearest first
+     */
+    BestMatchingUnit[] toArray()
+    {
+        int n = size;
+        BestMatchingUnit[] result = new BestMatchingUnit[n];
+        // remove the farthest node from the heap until it is empty
+        while (size > 0)
+        {
+            int node = nodes[0];
+            result[size - 1] = new BestMatchingUnit(node, node % x_dim, node / x_dim, distances[0]);
+            size--;
+            nodes[0] = nodes[size];
+            distances[0] = distances[size];
+            siftDown(0);
+        }
+        return result;
+    }
+
+    /**
+     * @return true if node a is farther than node b
+     */
+    private boolean farther(int a, double distA, int b, double distB)
+    {
+        if (distA != distB)
+            return distA > distB;
+        int xA = a % x_dim;
+        int xB = b % x_dim;
+        if (xA != xB)
+            return xA > xB;
+        return a > b;
+    }
+
+    private void siftUp(int i)
+    {
+        while (i > 0)
+        {
+            int parent = (i - 1) / 2;
+            if (!farther(nodes[i], distances[i], nodes[parent], distances[parent]))
+                return;
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i)
+    {
+        while (true)
+        {
+            int child = 2 * i + 1;
+            if (child >= size)
+                return;
+            if (child + 1 < size && farther(nodes[child + 1], distances[child + 1], nodes[child], distances[child]))
+                child++;
+            if (!farther(nodes[child], distances[child], nodes[i], distances[i]))
+                return;
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int i, int j)
+    {
+        int node = nodes[i];
+        nodes[i] = nodes[j];
+        nodes[j] = node;
+        double distance = distances[i];
+        distances[i] = distances[j];
+        distances[j] = distance;
+    }
+}
@@ -0,0 +1,224 @@
+package org.tum.opensim.somview;
+
+/**
+ * Distances between the value vectors of neighboring nodes of a hexagonal som
+ * (the umatrix), in which the odd rows are shifted to the right by half a node.
+ *
+ * Every edge of the grid is stored once, with the node it starts at:
+ * EAST leads to the next node of the row, DOWN to the node below in the same
+ * column and DIAGONAL to the other node below (the left one for even rows,
+ * the right one for odd rows). So there are three floats per node instead of
+ * the four doubles per node of the (2y-1)x(2x-1) grid, whose node cells held 0.
+ *
+ * The mean, median and maximum over the neighbors of a node are computed from
+ * its (at most six) edges when they are asked for.
+ */
+public class NeighborDistances {
+
+    /**
+     * Edge to the next node of the row
+     */
+    public static final int EAST = 0;
+    /**
+     * Edge to the node below in the same column
+     */
+    public static final int DOWN = 1;
+    /**
+     * Edge to the node below that is not in the same column:
+     * the left one for even rows, the right one for odd rows
+     */
+    public static final int DIAGONAL = 2;
+
+    private static final int EDGES = 3;
+
+    private final int x_dim;
+    private final int y_dim;
+
+    /**
+     * Distance of edge e of node n at n * EDGES + e, NaN for edges that leave the grid
+     */
+    private final float[] edges;
+
+    /**
+     * Creates a store in which all distances are missing
+     * @param x_dim number of nodes in x direction
+     * @param y_dim number of nodes in y direction
+     */
+    NeighborDistances(int x_dim, int y_dim)
+    {
+        if ((long) x_dim * y_dim * EDGES > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The som is too large to store the distances of its nodes.");
+        this.x_dim = x_dim;
+        this.y_dim = y_dim;
+        edges = new float[x_dim * y_dim * EDGES];
+        java.util.Arrays.fill(edges, Float.NaN);
+    }
+
+    /**
+     * @param node index of a node
+     * @param edge EAST, DOWN or DIAGONAL
+     * @return index of the node at the other end of the edge, -1 if it leaves the grid
+     */
+    public int getNeighbor(int node, int edge)
+    {
+        int x = node % x_dim;
+        int y = node / x_dim;
+        switch (edge)
+        {
+            case EAST:
+                return x + 1 < x_dim ? node + 1 : -1;
+            case DOWN:
+                return y + 1 < y_dim ? node + x_dim : -1;
+            case DIAGONAL:
+                int other = y % 2 == 0 ? x - 1 : x + 1;
+                return y + 1 < y_dim && other >= 0 && other < x_dim ? node + x_dim + other - x : -1;
+            default:
+                throw new IllegalArgumentException("Unknown edge " + edge);
+        }
+    }
+
+    /**
+     * @param node index of a node
+     * @param edge EAST, DOWN or DIAGONAL
+     * @return the distance along the edge, NaN if it leaves the grid
+     */
+    public double get(int node, int edge)
+    {
+        return edges[node * EDGES + edge];
+    }
+
+    /**
+     * Stores the distance along an edge
+     */
+    void set(int node, int edge, double distance)
+    {
+        edges[node * EDGES + edge] = (float) distance;
+    }
+
+    /**
+     * Collects the distances of a node to all of its neighbors
+     * @param node index of the node
+     * @param dest array of at least 6 elements the distances are written to
+     * @return number of neighbors
+     */
+    public int getDistances(int node, double[] dest)
+    {
+        int x = node % x_dim;
+        int y = node / x_dim;
+        int count = 0;
+        // the edges that start at the node
+        for (int e = 0; e < EDGES; e++)
+        {
+            float d = edges[node * EDGES + e];
+            if (!Float.isNaN(d))
+                dest[count++] = d;
+        }
+        // the edges that end at it: from the left node and the two nodes above
+        if (x > 0)
+            dest[count++] = edges[(node - 1) * EDGES + EAST];
+        if (y > 0)
+        {
+            int above = node - x_dim;
+            dest[count++] = edges[above * EDGES + DOWN];
+            // the diagonal edge of an even row leads to the left, so it comes from the right
+            int other = (y - 1) % 2 == 0 ? x + 1 : x - 1;
+            if (other >= 0 && other < x_dim)
+                dest[count++] = edges[(above + other - x) * EDGES + DIAGONAL];
+        }
+        return count;
+    }
+
+    /**
+     * @param node index of a node
+     * @param buffer array of at least 6 elements, it is overwritten and can be reused for all nodes
+     * @return mean distance to its neighbors, 0 if it has none
+     */
+    public double getMean(int node, double[] buffer)
+    {
+        int count = getDistances(node, buffer);
+        double sum = 0;
+        for (int i = 0; i < count; i++)
+            sum += buffer[i];
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * @param node index of a node
+     * @param buffer array of at least 6 elements, it is overwritten and can be reused for all nodes
+     * @return median distance to its neighbors, 0 if it has none
+     */
+    public double getMedian(int node, double[] buffer)
+    {
+        int count = getDistances(node, buffer);
+        if (count == 0)
+            return 0;
+        java.util.Arrays.sort(buffer, 0, count);
+        return count % 2 == 1 ? buffer[count / 2] : (buffer[count / 2 - 1] + buffer[count / 2]) / 2;
+    }
+
+    /**
+     * @param node index of a node
+     * @param buffer array of at least 6 elements, it is overwritten and can be reused for all nodes
+     * @return largest distance to its neighbors, 0 if it has none
+     */
+    public double getMax(int node, double[] buffer)
+    {
+        int count = getDistances(node, buffer);
+        double max = 0;
+        for (int i = 0; i < count; i++)
+            max = Math.max(max, buffer[i]);
+        return max;
+    }
+
+    /**
+     * @return true if a cell of the (2y-1)x(2x-1) umatrix grid shows a node,
+     *         the other cells show the distance between two nodes
+     */
+    public static boolean isNodeCell(int y, int x)
+    {
+        return y % 2 == 0 && x % 2 == 0;
+    }
+
+    /**
+     * Edge shown by a cell of the (2y-1)x(2x-1) umatrix grid
+     * @param y row of the cell
+     * @param x column of the cell
+     * @return EAST, DOWN or DIAGONAL, -1 for the cells of nodes
+     */
+    public static int getCellEdge(int y, int x)
+    {
+        if (y % 2 == 0)
+            return x % 2 == 0 ? -1 : EAST;
+        return x % 2 == 0 ? DOWN : DIAGONAL;
+    }
+
+    /**
+     * Node a cell of the (2y-1)x(2x-1) umatrix grid belongs to
+     * @param y row of the cell
+     * @param x column of the cell
+     * @return the node of a node cell, the node the edge of a distance cell starts at
+     */
+    public int getCellNode(int y, int x)
+    {
+        int row = y / 2;
+        // nodes, horizontal and vertical distances
+        if (y % 2 == 0 || x % 2 == 0)
+            return row * x_dim + x / 2;
+        // diagonal distances: to the lower left from the node to the right of the cell
+        // in even rows, to the lower right from the node to the left of it in odd rows
+        int column = row % 2 == 0 ? (x + 1) / 2 : (x - 1) / 2;
+        return row * x_dim + column;
+    }
+
+    /**
+     * Distance shown by a cell of the (2y-1)x(2x-1) umatrix grid
+     * @param y row of the cell
+     * @param x column of the cell
+     * @return the distance between the nodes next to the cell, 0 for the cells of nodes
+     */
+    public double getCell(int y, int x)
+    {
+        int edge = getCellEdge(y, x);
+        return edge < 0 ? 0 : get(getCellNode(y, x), edge);
+    }
+}
@@ -0,0 +1,157 @@
+package org.tum.opensim.somview;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Density of a data set at the nodes of a SOM (@see SOMMap#computeDensities ):
+ * for every node the number of data vectors within a radius of its value vector.
+ * Shown on the grid it is the P-matrix, it scales the distances of the
+ * umatrix to the U*-matrix.
+ *
+ * The default radius is the Pareto radius: the 18th percentile of the
+ * distances between the data vectors, estimated from a sample.
+ */
+public class NodeDensities {
+
+    /**
+     * Percentile of the distances between the data vectors that is the Pareto radius
+     */
+    public static final double PARETO_PERCENTILE = 0.18;
+
+    /**
+     * Maximal number of data vectors the Pareto radius is estimated from
+     */
+    private static final int PARETO_SAMPLE = 1000;
+
+    private final int x_dim;
+    private final double radius;
+    private final int vectors;
+    private final int[] counts;
+    private final int max;
+    private final double mean;
+
+    /**
+     * @param x_dim number of nodes in x direction
+     * @param radius the radius the data vectors were counted in
+     * @param vectors number of data vectors
+     * @param counts number of data vectors within the radius per node
+     */
+    NodeDensities(int x_dim, double radius, int vectors, int[] counts)
+    {
+        this.x_dim = x_dim;
+        this.radius = radius;
+        this.vectors = vectors;
+        this.counts = counts;
+        int largest = 0;
+        double sum = 0;
+        for (int n = 0; n < counts.length; n++)
+        {
+            largest = Math.max(largest, counts[n]);
+            sum += counts[n];
+        }
+        max = largest;
+        mean = counts.length == 0 ? 0 : sum / counts.length;
+    }
+
+    /**
+     * Estimates the Pareto radius of a data set
+     * @param data the data vectors, vectors with missing components (NaN) are left out
+     * @return the PARETO_PERCENTILE percentile of the distances between
+     *         (a sample of at most PARETO_SAMPLE of) the vectors, 0 if there are less than two
+     */
+    public static double estimateParetoRadius(double[][] data)
+    {
+        // a random sample with a fixed seed, the same data gives the same radius
+        List<double[]> sample = new ArrayList<double[]>();
+        for (int i = 0; i < data.length; i++)
+        {
+            if (!MaskedVector.hasMissing(data[i]))
+                sample.add(data[i]);
+        }
+        Collections.shuffle(sample, new Random(data.length));
+        int size = Math.min(PARETO_SAMPLE, sample.size());
+        if (size < 2)
+            return 0;
+        double[] distances = new double[size * (size - 1) / 2];
+        int k = 0;
+        for (int i = 0; i < size; i++)
+        {
+            double[] a = sample.get(i);
+            for (int j = i + 1; j < size; j++)
+            {
+                double[] b = sample.get(j);
+                double sum = 0;
+                for (int d = 0; d < a.length; d++)
+                {
+                    double diff = a[d] - b[d];
+                    sum += diff * diff;
+                }
+                distances[k++] = sum;
+            }
+        }
+        java.util.Arrays.sort(distances);
+        return Math.sqrt(distances[(int) (PARETO_PERCENTILE * (distances.length - 1))]);
+    }
+
+    /**
+     * @return the radius the data vectors were counted in
+     */
+    public double getRadius() {
+        return radius;
+    }
+
+    /**
+     * @return number of data vectors
+     */
+    public int getVectorCount() {
+        return vectors;
+    }
+
+    /**
+     * @param node index of a node
+     * @return number of data vectors within the radius of the node
+     */
+    public int getDensity(int node) {
+        return counts[node];
+    }
+
+    /**
+     * @return number of data vectors within the radius per node, [y][x]
+     */
+    public int[][] getDensities() {
+        int[][] densities = new int[counts.length / x_dim][x_dim];
+        for (int n = 0; n < counts.length; n++)
+            densities[n / x_dim][n % x_dim] = counts[n];
+        return densities;
+    }
+
+    /**
+     * @return the largest density of a node
+     */
+    public int getMaxDensity() {
+        return max;
+    }
+
+    /**
+     * @return the mean density of the nodes
+     */
+    public double getMeanDensity() {
+        return mean;
+    }
+
+    /**
+     * Factor the distances at a density are scaled with in the U*-matrix:
+     * 1 at the mean density, 0 at the largest one, so distances within dense
+     * regions (clusters) shrink and distances in sparse regions grow
+     * @param density a density
+     * @return the factor, not negative
+     */
+    public double getUStarScale(double density) {
+        if (max <= mean)
+            return 1;
+        return (density - mean) / (mean - max) + 1;
+    }
+}
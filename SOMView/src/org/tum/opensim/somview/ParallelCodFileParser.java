@@ -0,0 +1,297 @@
+package org.tum.opensim.somview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Parser for large .cod files. The file is memory mapped in chunks that
+ * start at line boundaries and the chunks are parsed in parallel.
+ * Since the number of vectors in the preceding chunks is counted first,
+ * every chunk writes its vectors straight into the right rows of the codebook,
+ * which has the requested precision from the start (@see CodebookBuilder ).
+ * A quantized codebook needs a second pass over the chunks.
+ *
+ * Produces the same SOMMap as @see CodFileParser , which is used for small files.
+ */
+final class ParallelCodFileParser {
+
+    /**
+     * Files of at least this size are parsed in parallel
+     */
+    static final long PARALLEL_THRESHOLD = 16L << 20;
+
+    /**
+     * Nominal size of the chunks the file is split into
+     */
+    private static final long CHUNK_SIZE = 8L << 20;
+
+    /**
+     * The header is searched for in this many bytes at the beginning of the file
+     */
+    private static final int HEADER_WINDOW = 1 << 20;
+
+    private ParallelCodFileParser() {
+    }
+
+    /**
+     * Reads a SOM from a .cod file
+     * @param file the .cod file
+     * @param precision precision of the codebook, one of the Codebook.PRECISION_* constants
+     * @return the SOM
+     * @throws SOMReadException if the file content does not match the .cod format
+     * @throws IOException if the file can not be read
+     */
+    static SOMMap read(File file, int precision) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+
+            //The header is the first line that is neither empty nor a comment
+            MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, HEADER_WINDOW));
+            int pos = 0;
+            int headerLine = 0;
+            SOMMap som = null;
+            //The names of the components are in a comment line in front of the first vector
+            String[] names = null;
+            while (som == null)
+            {
+                int end = CodFileParser.indexOfNewline(head, pos, head.limit());
+                if (end < 0)
+                {
+                    if (head.limit() < size)
+                    {
+                        //Lots of comments in front of the header => just stream the file
+                        return CodFileParser.read(file, precision);
+                    }
+                    if (pos == head.limit())
+                    {
+                        throw new SOMReadException("The specified *.cod file does not contain a header.");
+                    }
+                    end = head.limit();
+                }
+                headerLine++;
+                int to = trimLine(head, pos, end);
+                int first = CodFileParser.skipBlanks(head, pos, to);
+                if (first < to && head.get(first) != '#')
+                {
+                    byte[] bytes = new byte[to - pos];
+                    for (int i = 0; i < bytes.length; i++)
+                        bytes[i] = head.get(pos + i);
+                    som = CodFileParser.parseHeader(new String(bytes, "US-ASCII"), headerLine);
+                }
+                else if (first < to)
+                {
+                    String[] found = CodFileParser.parseComponentNames(head, first, to);
+                    if (found != null)
+                        names = found;
+                }
+                pos = end + 1;
+            }
+
+            for (int next = pos; next < size; )
+            {
+                int end = CodFileParser.indexOfNewline(head, next, head.limit());
+                //The first vector may reach beyond the mapped head
+                int lineEnd = end < 0 ? head.limit() : end;
+                int first = CodFileParser.skipBlanks(head, next, lineEnd);
+                if (first < lineEnd && head.get(first) != '#')
+                    break;
+                if (end < 0)
+                {
+                    if (head.limit() < size)
+                    {
+                        //Lots of comments in front of the first vector => just stream the file
+                        return CodFileParser.read(file, precision);
+                    }
+                    end = head.limit();
+                }
+                int to = trimLine(head, next, end);
+                if (first < to)
+                {
+                    String[] found = CodFileParser.parseComponentNames(head, first, to);
+                    if (found != null)
+                        names = found;
+                }
+                next = end + 1;
+            }
+
+            final SOMMap header = som;
+            final int nodes = som.getX() * som.getY();
+            final CodebookBuilder builder = new CodebookBuilder(precision, nodes, som.getDim());
+
+            //Split the rest of the file into chunks that start at line boundaries
+            long[] bounds = computeChunkBounds(channel, Math.min(pos, size), size);
+            final int chunks = bounds.length - 1;
+            final MappedByteBuffer[] buffers = new MappedByteBuffer[chunks];
+            for (int c = 0; c < chunks; c++)
+            {
+                if (bounds[c + 1] - bounds[c] > Integer.MAX_VALUE)
+                    throw new SOMReadException("The file contains a line that is too long to be parsed.");
+                buffers[c] = channel.map(FileChannel.MapMode.READ_ONLY, bounds[c], bounds[c + 1] - bounds[c]);
+            }
+
+            //First pass: count the lines and vectors in every chunk
+            final int[] lines = new int[chunks];
+            final int[] vectors = new int[chunks];
+            ParallelTasks.forRange(chunks, 1, new ParallelTasks.RangeTask<RuntimeException>() {
+                public void run(int from, int to) {
+                    for (int c = from; c < to; c++)
+                        countLines(buffers[c], c, lines, vectors);
+                }
+            });
+
+            //The first line and first row of every chunk follow from the counts of the chunks before
+            final int[] firstLine = new int[chunks];
+            final int[] firstRow = new int[chunks];
+            int lineCount = headerLine;
+            int rowCount = 0;
+            for (int c = 0; c < chunks; c++)
+            {
+                firstLine[c] = lineCount + 1;
+                firstRow[c] = rowCount;
+                lineCount += lines[c];
+                rowCount += vectors[c];
+            }
+
+            //Second pass: parse the chunks straight into their rows of the codebook,
+            //once more for a quantized codebook
+            do {
+                ParallelTasks.forRange(chunks, 1, new ParallelTasks.RangeTask<SOMReadException>() {
+                    public void run(int from, int to) throws SOMReadException {
+                        CodebookBuilder.Statistics statistics = new CodebookBuilder.Statistics(header.getDim());
+                        for (int c = from; c < to; c++)
+                            parseChunk(buffers[c], firstLine[c], firstRow[c], header, builder, statistics);
+                        builder.addStatistics(statistics);
+                    }
+                });
+            } while (builder.nextPass());
+
+            if (rowCount != nodes)
+            {
+                throw new SOMReadException("The file contains " + rowCount + " vectors, but the header specifies "
+                        + som.getX() + "x" + som.getY() + " = " + nodes + " nodes.", lineCount, 1);
+            }
+            som.setCodebook(builder.finish());
+            if (names != null && names.length == som.getDim())
+                som.setComponentNames(names);
+            return som;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Splits [start,size) into chunks of roughly CHUNK_SIZE bytes that start at line boundaries
+     * @return the chunk boundaries, chunk c is [bounds[c], bounds[c+1])
+     */
+    private static long[] computeChunkBounds(FileChannel channel, long start, long size) throws IOException
+    {
+        int nominal = (int) Math.max(1, (size - start + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        long[] bounds = new long[nominal + 1];
+        int count = 0;
+        bounds[count++] = start;
+        ByteBuffer probe = ByteBuffer.allocate(4096);
+        for (int c = 1; c < nominal; c++)
+        {
+            long b = start + c * CHUNK_SIZE;
+            if (b <= bounds[count - 1])
+                continue;
+            //Move the boundary behind the next newline
+            long p = b - 1;
+            long aligned = size;
+            while (p < size)
+            {
+                probe.clear();
+                int n = channel.read(probe, p);
+                if (n <= 0)
+                    break;
+                int nl = CodFileParser.indexOfNewline(probe, 0, n);
+                if (nl >= 0)
+                {
+                    aligned = p + nl + 1;
+                    break;
+                }
+                p += n;
+            }
+            if (aligned > bounds[count - 1] && aligned < size)
+                bounds[count++] = aligned;
+        }
+        bounds[count++] = size;
+        long[] result = new long[count];
+        System.arraycopy(bounds, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * @return index behind the last byte of the line [from,end) without a trailing carriage return
+     */
+    private static int trimLine(ByteBuffer buf, int from, int end)
+    {
+        if (end > from && buf.get(end - 1) == '\r')
+            return end - 1;
+        return end;
+    }
+
+    /**
+     * Counts all lines and the lines containing a vector in a chunk
+     */
+    private static void countLines(ByteBuffer buf, int c, int[] lines, int[] vectors)
+    {
+        int n = buf.limit();
+        int pos = 0;
+        while (pos < n)
+        {
+            int end = CodFileParser.indexOfNewline(buf, pos, n);
+            if (end < 0)
+                end = n;
+            lines[c]++;
+            int to = trimLine(buf, pos, end);
+            int first = CodFileParser.skipBlanks(buf, pos, to);
+            if (first < to && buf.get(first) != '#')
+                vectors[c]++;
+            pos = end + 1;
+        }
+    }
+
+    /**
+     * Parses the vectors of a chunk into the codebook
+     * @param buf the chunk
+     * @param lineNumber number of the first line of the chunk in the file
+     * @param row index of the node the first vector of the chunk belongs to
+     */
+    private static void parseChunk(ByteBuffer buf, int lineNumber, int row, SOMMap header,
+            CodebookBuilder builder, CodebookBuilder.Statistics statistics) throws SOMReadException
+    {
+        int nodes = header.getX() * header.getY();
+        double[] vector = new double[header.getDim()];
+        int n = buf.limit();
+        int pos = 0;
+        for (; pos < n; lineNumber++)
+        {
+            int end = CodFileParser.indexOfNewline(buf, pos, n);
+            if (end < 0)
+                end = n;
+            int to = trimLine(buf, pos, end);
+            int first = CodFileParser.skipBlanks(buf, pos, to);
+            if (first < to && buf.get(first) != '#')
+            {
+                if (row >= nodes)
+                {
+                    throw new SOMReadException("The file contains more than the " + nodes
+                            + " vectors specified in the header.", lineNumber, 1);
+                }
+                CodFileParser.parseVector(buf, pos, to, lineNumber, vector, 0, header.getDim());
+                statistics.add(vector);
+                builder.store(row, vector);
+                row++;
+            }
+            pos = end + 1;
+        }
+    }
+}
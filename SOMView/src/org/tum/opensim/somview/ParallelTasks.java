@@ -0,0 +1,130 @@
+package org.tum.opensim.somview;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shared worker pool for the computations that are split across cores
+ * (parsing, BMU search, distance maps ...)
+ */
+final class ParallelTasks {
+
+    /**
+     * A task that processes the indices [from,to) of some range
+     */
+    interface RangeTask<E extends Exception> {
+        void run(int from, int to) throws E;
+    }
+
+    /**
+     * Threads of the pool - used to detect nested calls
+     */
+    private static class WorkerThread extends Thread {
+        WorkerThread(Runnable r, String name) {
+            super(r, name);
+        }
+    }
+
+    private static ExecutorService executor;
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * @return number of threads work is split across
+     */
+    static int getParallelism()
+    {
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * @return the pool, created on first use. Its threads are daemons,
+     * so it does not keep OpenSim from exiting
+     */
+    static synchronized ExecutorService getExecutor()
+    {
+        if (executor == null)
+        {
+            executor = Executors.newFixedThreadPool(getParallelism(), new ThreadFactory() {
+                private int count = 0;
+
+                public synchronized Thread newThread(Runnable r) {
+                    Thread t = new WorkerThread(r, "SOMView worker " + (count++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Splits [0,n) into consecutive ranges of at least grain indices and
+     * processes them in parallel. Returns when all ranges are done.
+     * Calls from within a worker thread are processed sequentially.
+     * @param n number of indices
+     * @param grain minimal number of indices per range
+     * @param task the task that processes a range
+     * @throws E the first exception thrown by a range, in range order
+     */
+    static <E extends Exception> void forRange(int n, int grain, final RangeTask<E> task) throws E
+    {
+        if (n <= 0)
+            return;
+        int chunks = Math.min(getParallelism() * 4, (n + grain - 1) / Math.max(grain, 1));
+        if (chunks <= 1 || Thread.currentThread() instanceof WorkerThread)
+        {
+            task.run(0, n);
+            return;
+        }
+
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(chunks);
+        for (int c = 0; c < chunks; c++)
+        {
+            final int from = (int) ((long) n * c / chunks);
+            final int to = (int) ((long) n * (c + 1) / chunks);
+            futures.add(getExecutor().submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    task.run(from, to);
+                    return null;
+                }
+            }));
+        }
+        ParallelTasks.<E>waitFor(futures);
+    }
+
+    /**
+     * Waits for all futures and rethrows the first exception, in list order
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Exception> void waitFor(List<Future<Object>> futures) throws E
+    {
+        Throwable failure = null;
+        for (Future<Object> f : futures)
+        {
+            try {
+                f.get();
+            } catch (ExecutionException ex) {
+                if (failure == null)
+                    failure = ex.getCause();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                if (failure == null)
+                    failure = ex;
+            }
+        }
+        if (failure instanceof Error)
+            throw (Error) failure;
+        if (failure instanceof InterruptedException)
+            throw new IllegalStateException("Interrupted while waiting for worker threads", failure);
+        if (failure != null)
+            throw (E) failure;
+    }
+}
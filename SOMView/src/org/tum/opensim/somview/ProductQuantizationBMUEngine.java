@@ -0,0 +1,341 @@
+package org.tum.opensim.somview;
+
+import java.util.Random;
+
+/**
+ * Approximate engine for maps with very long value vectors (product quantization).
+ *
+ * The components are split into subspaces of SUBSPACE_DIM components. In every
+ * subspace the parts of the node vectors are clustered into at most 256 centroids
+ * (k-means) and each node stores the index of its nearest centroid in one byte.
+ * A query computes its distances to all centroids of all subspaces once, the
+ * approximate distance of a node is then the sum of one table entry per subspace
+ * instead of a sum over all components.
+ *
+ * The nodes with the smallest approximate distances are compared exactly
+ * (re-ranking), so the BMU is usually, but not always, the exact one.
+ * measureRecall tells how often it is. The distances between nodes are exact.
+ */
+public class ProductQuantizationBMUEngine extends BMUEngine {
+
+    /**
+     * Number of components per subspace
+     */
+    public static final int SUBSPACE_DIM = 8;
+
+    /**
+     * Default number of candidates that are compared exactly
+     */
+    public static final int DEFAULT_CANDIDATES = 32;
+
+    /**
+     * Maximal number of centroids per subspace, the codes are bytes
+     */
+    private static final int CENTROIDS = 256;
+
+    /**
+     * Maximal number of nodes the centroids are trained with
+     */
+    private static final int TRAINING_SAMPLE = 2048;
+
+    /**
+     * Number of k-means iterations
+     */
+    private static final int ITERATIONS = 6;
+
+    /**
+     * Engine the exact distances are computed with
+     */
+    private final BMUEngine kernel;
+    private final int dim;
+    private final int nodes;
+    private final int candidates;
+
+    private final int subspaces;
+    private final int centroidCount;
+
+    /**
+     * Centroids of subspace s, centroid j at j * length(s)
+     */
+    private final double[][] centroids;
+
+    /**
+     * Code of node n in subspace s at n * subspaces + s
+     */
+    private final byte[] codes;
+
+    /**
+     * Distance table of a query per thread, in floats to halve the cache it takes
+     */
+    private final ThreadLocal<float[]> tables = new ThreadLocal<float[]>() {
+        @Override
+        protected float[] initialValue() {
+            return new float[subspaces * centroidCount];
+        }
+    };
+
+    /**
+     * Trains the quantizer with the default number of candidates
+     * @param codebook the codebook the distances are computed for
+     * @param x_dim number of nodes in x direction of the SOM
+     */
+    public ProductQuantizationBMUEngine(Codebook codebook, int x_dim)
+    {
+        this(codebook, x_dim, DEFAULT_CANDIDATES);
+    }
+
+    /**
+     * Trains the quantizer and encodes the nodes
+     * @param codebook the codebook the distances are computed for
+     * @param x_dim number of nodes in x direction of the SOM
+     * @param candidates number of nodes with the smallest approximate distances that are compared exactly
+     */
+    public ProductQuantizationBMUEngine(Codebook codebook, int x_dim, int candidates)
+    {
+        super(codebook, x_dim);
+        if (candidates < 1)
+            throw new IllegalArgumentException("At least one candidate has to be compared exactly.");
+        this.kernel = LaneBMUEngine.supports(codebook)
+                ? new LaneBMUEngine(codebook, x_dim) : new ScalarBMUEngine(codebook, x_dim);
+        this.dim = codebook.getDim();
+        this.nodes = codebook.getNodeCount();
+        this.candidates = candidates;
+        this.subspaces = (dim + SUBSPACE_DIM - 1) / SUBSPACE_DIM;
+        if ((long) nodes * subspaces > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The map is too large to be encoded.");
+
+        final double[][] sample = sample();
+        this.centroidCount = Math.min(CENTROIDS, sample.length);
+        centroids = new double[subspaces][];
+        codes = new byte[nodes * subspaces];
+        // the subspaces are independent, they are trained and encoded on all cores
+        ParallelTasks.forRange(subspaces, 1, new ParallelTasks.RangeTask<RuntimeException>() {
+            public void run(int from, int to) {
+                for (int s = from; s < to; s++)
+                {
+                    centroids[s] = train(s, sample);
+                    encode(s);
+                }
+            }
+        });
+    }
+
+    @Override
+    public int getType() {
+        return APPROXIMATE;
+    }
+
+    /**
+     * @return number of nodes with the smallest approximate distances that are compared exactly
+     */
+    public int getCandidates() {
+        return candidates;
+    }
+
+    @Override
+    protected double distanceSquared(int node, double[] vector, double bound) {
+        return kernel.distanceSquared(node, vector, bound);
+    }
+
+    @Override
+    public double distanceSquared(int a, int b) {
+        return kernel.distanceSquared(a, b);
+    }
+
+    @Override
+    public BestMatchingUnit findBMU(double[] vector)
+    {
+        return search(vector, 1)[0];
+    }
+
+    @Override
+    public void findTwoBMUs(double[] vector, int index, BMUProjection projection)
+    {
+        if (nodes < 2)
+        {
+            kernel.findTwoBMUs(vector, index, projection);
+            return;
+        }
+        BestMatchingUnit[] two = search(vector, 2);
+        projection.set(index, two[0].getNode(), two[0].getDistance(), two[1].getNode(), two[1].getDistance());
+    }
+
+    @Override
+    public BestMatchingUnit[] findNearest(double[] vector, int k)
+    {
+        return search(vector, Math.min(k, nodes));
+    }
+
+    /**
+     * Compares the BMUs of some vectors with the exact ones
+     * @param vectors vectors of length dim
+     * @return fraction of the vectors whose BMU is the exact one
+     */
+    public double measureRecall(double[][] vectors)
+    {
+        if (vectors.length == 0)
+            return 1;
+        int hits = 0;
+        for (int i = 0; i < vectors.length; i++)
+        {
+            if (findBMU(vectors[i]).getNode() == kernel.findBMU(vectors[i]).getNode())
+                hits++;
+        }
+        return (double) hits / vectors.length;
+    }
+
+    /**
+     * Finds the k nearest nodes among the candidates with the smallest approximate distances
+     */
+    private BestMatchingUnit[] search(double[] vector, int k)
+    {
+        float[] table = tables.get();
+        int K = centroidCount;
+        for (int s = 0; s < subspaces; s++)
+        {
+            int offset = s * SUBSPACE_DIM;
+            int length = Math.min(SUBSPACE_DIM, dim - offset);
+            double[] c = centroids[s];
+            for (int j = 0; j < K; j++)
+                table[s * K + j] = (float) distanceSquared(vector, offset, c, j * length, length);
+        }
+
+        NearestNodes approximate = new NearestNodes(Math.min(Math.max(candidates, k), nodes), x_dim);
+        for (int node = 0; node < nodes; node++)
+        {
+            // the sum is abandoned once it exceeds the worst candidate, checked every ABANDON_BLOCK subspaces
+            double bound = approximate.bound();
+            int code = node * subspaces;
+            float sum = 0;
+            int s = 0;
+            for (int blocks = subspaces - Codebook.ABANDON_BLOCK; s <= blocks && sum <= bound; )
+            {
+                for (int end = s + Codebook.ABANDON_BLOCK; s < end; s++)
+                    sum += table[s * K + (codes[code + s] & 0xFF)];
+            }
+            if (sum > bound)
+                continue;
+            for (; s < subspaces; s++)
+                sum += table[s * K + (codes[code + s] & 0xFF)];
+            approximate.offer(node, sum);
+        }
+
+        // re-rank the candidates with their exact distances
+        NearestNodes exact = new NearestNodes(k, x_dim);
+        BestMatchingUnit[] found = approximate.toArray();
+        for (int i = 0; i < found.length; i++)
+        {
+            int node = found[i].getNode();
+            exact.offer(node, kernel.distanceSquared(node, vector, exact.bound()));
+        }
+        return exact.toArray();
+    }
+
+    /**
+     * @return the vectors of up to TRAINING_SAMPLE nodes, chosen at random with a fixed seed
+     */
+    private double[][] sample()
+    {
+        int[] order = new int[nodes];
+        for (int i = 0; i < nodes; i++)
+            order[i] = i;
+        int size = Math.min(TRAINING_SAMPLE, nodes);
+        Random random = new Random(nodes);
+        double[][] sample = new double[size][];
+        for (int i = 0; i < size; i++)
+        {
+            int j = i + random.nextInt(nodes - i);
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+            sample[i] = codebook.getVector(order[i]);
+        }
+        return sample;
+    }
+
+    /**
+     * Clusters the parts of the sample vectors in a subspace (k-means)
+     * @return the centroids
+     */
+    private double[] train(int s, double[][] sample)
+    {
+        int offset = s * SUBSPACE_DIM;
+        int length = Math.min(SUBSPACE_DIM, dim - offset);
+        int K = centroidCount;
+        double[] c = new double[K * length];
+        // the sample is in random order, its first vectors are the initial centroids
+        for (int j = 0; j < K; j++)
+            System.arraycopy(sample[j], offset, c, j * length, length);
+
+        double[] sums = new double[K * length];
+        int[] counts = new int[K];
+        for (int iteration = 0; iteration < ITERATIONS; iteration++)
+        {
+            java.util.Arrays.fill(sums, 0);
+            java.util.Arrays.fill(counts, 0);
+            for (int i = 0; i < sample.length; i++)
+            {
+                int j = nearestCentroid(sample[i], offset, c, length);
+                counts[j]++;
+                for (int d = 0; d < length; d++)
+                    sums[j * length + d] += sample[i][offset + d];
+            }
+            // empty clusters keep their centroid
+            for (int j = 0; j < K; j++)
+            {
+                if (counts[j] == 0)
+                    continue;
+                for (int d = 0; d < length; d++)
+                    c[j * length + d] = sums[j * length + d] / counts[j];
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Stores the codes of all nodes in a subspace
+     */
+    private void encode(int s)
+    {
+        int offset = s * SUBSPACE_DIM;
+        int length = Math.min(SUBSPACE_DIM, dim - offset);
+        // only the components of the subspace are read
+        double[] part = new double[length];
+        for (int node = 0; node < nodes; node++)
+        {
+            for (int d = 0; d < length; d++)
+                part[d] = codebook.get(node, offset + d);
+            codes[node * subspaces + s] = (byte) nearestCentroid(part, 0, centroids[s], length);
+        }
+    }
+
+    /**
+     * @return index of the centroid nearest to the part of a vector in a subspace
+     */
+    private int nearestCentroid(double[] vector, int offset, double[] c, int length)
+    {
+        int best = 0;
+        double min = Double.POSITIVE_INFINITY;
+        for (int j = 0; j < centroidCount; j++)
+        {
+            double dist = distanceSquared(vector, offset, c, j * length, length);
+            if (dist < min)
+            {
+                min = dist;
+                best = j;
+            }
+        }
+        return best;
+    }
+
+    private static double distanceSquared(double[] a, int oa, double[] b, int ob, int length)
+    {
+        double sum = 0;
+        for (int d = 0; d < length; d++)
+        {
+            double diff = a[oa + d] - b[ob + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}
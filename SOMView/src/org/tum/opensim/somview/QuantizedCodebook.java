@@ -0,0 +1,128 @@
+package org.tum.opensim.somview;
+
+import java.util.Arrays;
+
+/**
+ * Base class of codebooks that store every component as a small integer level.
+ * Each component c has its own linear mapping: value = offset[c] + scale[c] * level,
+ * chosen such that the range of the component over all nodes covers all levels.
+ */
+public abstract class QuantizedCodebook extends Codebook {
+
+    /**
+     * Distance between two neighboring levels of each component
+     */
+    protected final double[] scale;
+
+    /**
+     * Value of level 0 of each component
+     */
+    protected final double[] offset;
+
+    private final int minLevel;
+    private final int maxLevel;
+
+    /**
+     * Computes the mapping of every component from the value range in a codebook.
+     * Subclasses have to quantize the values of source themselves.
+     * @param source the codebook that is going to be quantized
+     * @param minLevel smallest level
+     * @param maxLevel largest level
+     */
+    protected QuantizedCodebook(Codebook source, int minLevel, int maxLevel)
+    {
+        this(source.getNodeCount(), source.getDim(), range(source), minLevel, maxLevel);
+    }
+
+    /**
+     * Computes the mapping of every component from its value range, known in advance
+     * (e.g. from a first pass over a file). All components start at level 0.
+     * @param nodes number of nodes
+     * @param dim dimensionality of the value vectors
+     * @param range smallest (range[0]) and largest (range[1]) value of every component
+     * @param minLevel smallest level
+     * @param maxLevel largest level
+     */
+    protected QuantizedCodebook(int nodes, int dim, double[][] range, int minLevel, int maxLevel)
+    {
+        super(nodes, dim);
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+        double[] min = range[0];
+        double[] max = range[1];
+
+        scale = new double[dim];
+        offset = new double[dim];
+        for (int c = 0; c < dim; c++)
+        {
+            // a constant component (or one without any value) still needs a valid mapping
+            if (!(max[c] > min[c]))
+            {
+                scale[c] = 1;
+                offset[c] = min[c] <= max[c] ? min[c] : 0;
+            }
+            else
+            {
+                scale[c] = (max[c] - min[c]) / (maxLevel - minLevel);
+                offset[c] = min[c] - minLevel * scale[c];
+            }
+        }
+    }
+
+    /**
+     * @return smallest (range[0]) and largest (range[1]) value of every component of a codebook
+     */
+    private static double[][] range(Codebook source)
+    {
+        int dim = source.getDim();
+        double[] min = new double[dim];
+        double[] max = new double[dim];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        double[] vector = new double[dim];
+        for (int n = 0; n < source.getNodeCount(); n++)
+        {
+            source.getVector(n, vector);
+            for (int c = 0; c < dim; c++)
+            {
+                if (vector[c] < min[c])
+                    min[c] = vector[c];
+                if (vector[c] > max[c])
+                    max[c] = vector[c];
+            }
+        }
+        return new double[][] {min, max};
+    }
+
+    /**
+     * Maps a value to the nearest level, values outside of the range of the component are clamped
+     * @param component index of the component
+     * @param value the value
+     * @return the level
+     */
+    protected int quantize(int component, double value)
+    {
+        double level = Math.rint((value - offset[component]) / scale[component]);
+        if (level < minLevel)
+            return minLevel;
+        if (level > maxLevel)
+            return maxLevel;
+        return (int) level;
+    }
+
+    /**
+     * @param component index of the component
+     * @return distance between two neighboring levels of the component
+     */
+    public double getScale(int component) {
+        return scale[component];
+    }
+
+    /**
+     * @param component index of the component
+     * @return value of level 0 of the component
+     */
+    public double getOffset(int component) {
+        return offset[component];
+    }
+}
@@ -0,0 +1,80 @@
+package org.tum.opensim.somview;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * For every node p and radius R: the smallest distance between the vector of p
+ * and the vector of any node that is more than R steps away from p on the grid.
+ * By the triangle inequality a vector q is at least beyond(p, R) - |q - p| away from
+ * all those nodes, which lets BMUTracker prove that the BMU lies within radius R of p.
+ *
+ * The bounds of a node are computed (with one pass over the codebook) the first time
+ * they are needed and shared by all trackers of the SOM.
+ */
+final class RingBounds {
+
+    /**
+     * Largest radius bounds are kept for
+     */
+    static final int MAX_RADIUS = 4;
+
+    private final SOMMap som;
+    private final BMUEngine engine;
+    private final AtomicReferenceArray<double[]> bounds;
+
+    /**
+     * @param som the SOM
+     * @param engine engine the distances between nodes are computed with
+     */
+    RingBounds(SOMMap som, BMUEngine engine)
+    {
+        this.som = som;
+        this.engine = engine;
+        bounds = new AtomicReferenceArray<double[]>(som.getX() * som.getY());
+    }
+
+    /**
+     * @param node index of the node p
+     * @param radius the radius R, at most MAX_RADIUS
+     * @return smallest distance between p and a node more than R steps away,
+     *         infinite if there is no such node
+     */
+    double beyond(int node, int radius)
+    {
+        double[] b = bounds.get(node);
+        if (b == null)
+        {
+            b = compute(node);
+            bounds.set(node, b);
+        }
+        return b[radius];
+    }
+
+    private double[] compute(int p)
+    {
+        double[] b = new double[MAX_RADIUS + 1];
+        java.util.Arrays.fill(b, Double.POSITIVE_INFINITY);
+        double[] vector = engine.codebook.getVector(p);
+        int x_dim = som.getX();
+        int px = p % x_dim;
+        int py = p / x_dim;
+        int nodes = engine.codebook.getNodeCount();
+        for (int n = 0; n < nodes; n++)
+        {
+            int steps = SOMMap.hexDistance(px, py, n % x_dim, n / x_dim);
+            if (steps == 0)
+                continue;
+            // the node lies beyond all radii smaller than its number of steps,
+            // the bounds grow with the radius so the largest one decides whether it matters
+            int radius = Math.min(steps - 1, MAX_RADIUS);
+            double bound = b[radius] * b[radius];
+            double dist = engine.distanceSquared(n, vector, bound);
+            if (dist >= bound)
+                continue;
+            double distance = Math.sqrt(dist);
+            for (int r = radius; r >= 0 && distance < b[r]; r--)
+                b[r] = distance;
+        }
+        return b;
+    }
+}
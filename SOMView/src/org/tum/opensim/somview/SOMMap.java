@@ -3,13 +3,30 @@ package org.tum.opensim.somview;
 
 import java.awt.Color;
 import java.io.*;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import javax.swing.JOptionPane;
 
 
 public class SOMMap {
 
+    /**
+     * Minimal number of frames per segment of a tracked trajectory
+     */
+    private static final int TRACK_GRAIN = 4096;
+
+    /**
+     * Minimal number of vectors per task of the quality reduction
+     */
+    private static final int QUALITY_GRAIN = 4096;
+
+    /**
+     * Minimal number of rows of the distance map per task
+     */
+    private static final int DISTANCE_ROW_GRAIN = 4;
+
+    /**
+     * Number of data vectors a task of the density estimation counts at least
+     */
+    private static final int DENSITY_GRAIN = 1024;
+
 	// ================ STATIC METHODS ================== //
     /**
      * computes the Euclidean distance between two vectors a and b represented
@@ -24,12 +41,22 @@ public class SOMMap {
         if(a.length != b.length)
             throw new VectorException();
 
-        double sum = 0;
-        for(int i=0;i<a.length;i++){
-            sum += Math.pow((a[i] - b[i]),2);
-        }
+        return Math.sqrt(LaneBMUEngine.distanceSquared(a, 0, b, 0, a.length, Double.POSITIVE_INFINITY));
+    }
 
-        return Math.sqrt(sum);
+    /**
+     * Number of steps between two nodes of a hexagonal som, in which the odd rows
+     * are shifted to the right by half a node
+     * @return the number of steps, 1 for neighbors
+     */
+    public static int hexDistance(int x1, int y1, int x2, int y2)
+    {
+        // axial coordinates: the column is shifted back by half of the row
+        int q1 = x1 - (y1 - (y1 & 1)) / 2;
+        int q2 = x2 - (y2 - (y2 & 1)) / 2;
+        int dq = q2 - q1;
+        int dr = y2 - y1;
+        return (Math.abs(dq) + Math.abs(dr) + Math.abs(dq + dr)) / 2;
     }
     
     /**
@@ -39,104 +66,63 @@ public class SOMMap {
     * The file has to be compatible with the .cod file format
     * as specified in the @see <a href="http://www.cis.hut.fi/somtoolbox/package/papers/techrep.pdf">SOMToolbox documentation</a>
     *
+    * Large files are memory mapped and parsed in parallel.
+    * Files in the binary format (@see BinaryCodebookFile ) are recognised
+    * by their first bytes and loaded without parsing.
+    *
+    * @throws SOMReadException if the file does not match the .cod format,
+    *         the exception message contains the line and column of the error
     **/
     public static SOMMap readFile(File file) throws FileNotFoundException, IOException
     {
-       SOMMap som = new SOMMap();
-
-        //Get a buffered reader to read the text from the given file
-        FileInputStream fstream = new FileInputStream(file);
-        DataInputStream in = new DataInputStream(fstream);
-        BufferedReader br = new BufferedReader(new InputStreamReader(in));
-       
-
-        String line;
-        
-        int index = 0;
-        double [][][] map = null;
-
+        return readFile(file, Codebook.PRECISION_DOUBLE);
+    }
 
-        // Read lines
-        while((line = br.readLine()) != null)
+    /**
+    * Reads the structure of this SOMMap from a file, @see readFile(File)
+    *
+    * @param precision precision the codebook is kept in memory with,
+    *        one of the Codebook.PRECISION_* constants. Lower precisions
+    *        allow to load larger maps.
+    * @throws SOMReadException if the file does not match the .cod format
+    **/
+    public static SOMMap readFile(File file, int precision) throws FileNotFoundException, IOException
+    {
+        if(BinaryCodebookFile.isBinaryCodebook(file))
         {
-            // comment lines are ignored
-            if(!line.startsWith("#"))
-            {
-
-                String[] tokens = line.split(" ");
-                // special treatment of first line
-                if(som.getDim()==0)
-                {
-                    // handle the case where only the vector dimension is given
-                    // in the first line
-                    if(tokens.length==4 || tokens.length==5){
-                        som.setDim(Integer.parseInt(tokens[0]));
-                        som.setTopology(tokens[1]);
-                        som.setX(Integer.parseInt(tokens[2]));
-                        som.setY(Integer.parseInt(tokens[3]));
-                        if(tokens.length==5)
-                            som.setNeighborhood(tokens[4]);
-                        else
-                            som.setNeighborhood("bubble");
-                    }
-                    else{
-                        JOptionPane.showMessageDialog(null, "The specified *.cod file does not contain a header as expected. \n"
-                                + "Expected a header of the following format: \n"
-                                + "<vector dimensionality> <lattice type> <grid size in x-direction> <grid size in y-direction> <neighborhood function> \n"
-                                + "The neighborhood function may be omitted as different neighborhood types are currently not"
-                                + " supported.","Header incorrect",JOptionPane.ERROR_MESSAGE
-                                );
-                        return null;
-                    }
-                    // create a new map with the specified dimensions
-                    map = new double[som.getY()][som.getX()][som.getDim()];
-                }
-                else
-                {
-                    if(tokens.length!=som.getDim())
-                    {
-                        JOptionPane.showMessageDialog(null,"The vector dimensionality of the data is not consistent"
-                                + " with that specified in the header.","SOM dimensionality error",JOptionPane.ERROR_MESSAGE
-                                );
-                        return null;
-                        
-                    }
-                    //Read in the values and store them locally
-                    for(int i = 0; i < som.getDim(); i++)
-                    {
-                        try{
-                            double a = Double.parseDouble(tokens[i]);
-                            map[index / som.getX()][index % som.getX()][i] = a;
-                        }
-                        catch(NumberFormatException e){
-                            JOptionPane.showMessageDialog(null,tokens[i]+ " is not a double value.","Parse exception",JOptionPane.ERROR_MESSAGE);
-                            return null;
-                        }
-
-                        
-
-                    }
-
-                    index++;
-                }
-
-                
-            }
+            return BinaryCodebookFile.read(file, precision);
         }
-        som.setMap(map);
-
-        //Close the input stream
-        in.close();
-        
-
-        return som;
+        if(file.length() >= ParallelCodFileParser.PARALLEL_THRESHOLD
+                && ParallelTasks.getParallelism() > 1)
+        {
+            return ParallelCodFileParser.read(file, precision);
+        }
+        return CodFileParser.read(file, precision);
     }
     
     // ============== OBJECT =============== //
-    
+
     private int dim;
-    private double[][] distanceMap;
-    private double[][][] map;
+    private NeighborDistances neighborDistances;
+    private DistanceQuantiles distanceQuantiles;
+    private volatile Codebook codebook;
+    /**
+     * The engines of the current codebook, null while they have to be created again
+     * (@see getEngines ). Background tasks read them while nodes are updated, so they
+     * are published together through this field.
+     */
+    private volatile Engines engines;
+    /**
+     * Computes the distances between the nodes, it has no precomputed data
+     * and is replaced right away when the codebook or the engine type changes
+     */
+    private volatile BMUEngine nodeDistances;
+    private volatile int engineType = BMUEngine.AUTOMATIC;
+    private RingBounds ringBounds;
+    private ProductQuantizationBMUEngine approximateEngine;
+    private double[] componentWeights;
+    private String[] componentNames;
+    private ComponentPlanes componentPlanes;
     private double maxdistance;
 
     private double mindistance;
@@ -160,62 +146,80 @@ public class SOMMap {
         this.x_dim = x_dim;
         this.y_dim = y_dim;
         this.neighborhood_type = neighborhood_type;
-        this.map = map;
+        this.codebook = DoubleCodebook.fromMap(map);
+        invalidateEngines();
     }
 
     /**
-     * Creates a map containing the node distances (used for umatrix)
-     * @return the distance map
-     * @throws VectorException 
+     * The engine of single queries and the one of large batches
      */
-    private double[][] computeDistanceMap() throws VectorException{
-        double[][] distances = new double[y_dim*2-1][x_dim*2-1];
-        maxdistance = 0;
+    private static final class Engines {
+        final BMUEngine engine;
+        final BMUEngine batchEngine;
 
-        for(int x=0;x<x_dim*2-1;x++)
-        {
-            for(int y=0;y<y_dim*2-1;y++)
-            {
-                // horizontal distances
-                if(y%2==0)
-                {
-                    if(x%2==0)
-                    {
-                       distances[y][x]=0;
-                    }
-                    else
-                    {
-                        distances[y][x]=computeDistance(map[y/2][(x-1)/2],map[y/2][(x+1)/2]);
-                    }
-                }
-                // vertical distances
-                else
+        Engines(BMUEngine engine, BMUEngine batchEngine) {
+            this.engine = engine;
+            this.batchEngine = batchEngine;
+        }
+    }
+
+    /**
+     * Computes the distances between all neighboring nodes (used for umatrix),
+     * the rows of nodes are computed on all cores. Their extremes and
+     * quantiles are collected on the way.
+     * @return the distances
+     */
+    private NeighborDistances computeNeighborDistances() {
+        final NeighborDistances distances = new NeighborDistances(x_dim, y_dim);
+        final DistanceQuantiles quantiles = new DistanceQuantiles();
+        maxdistance = 0;
+        mindistance = Double.POSITIVE_INFINITY;
+
+        ParallelTasks.forRange(y_dim, DISTANCE_ROW_GRAIN, new ParallelTasks.RangeTask<RuntimeException>() {
+            public void run(int from, int to) {
+                double max = 0;
+                double min = Double.POSITIVE_INFINITY;
+                DistanceQuantiles local = new DistanceQuantiles();
+                for(int node=from*x_dim;node<to*x_dim;node++)
                 {
-                    if(x%2==0)
+                    for(int edge=0;edge<3;edge++)
                     {
-                        distances[y][x]=computeDistance(map[(y-1)/2][x/2],map[(y+1)/2][x/2]);
-                    }
-                    else
-                    {
-                        if(y%2==1)
-                            distances[y][x]=computeDistance(map[(y-1)/2][(x+1)/2],map[(y+1)/2][x/2]);
-                        else
-                            distances[y][x]=computeDistance(map[(y-1)/2][(x)/2],map[(y+1)/2][(x+1)/2]);
+                        double distance = edgeDistance(distances, node, edge);
+                        if(Double.isNaN(distance))
+                            continue;
+                        max = Math.max(max, distance);
+                        min = Math.min(min, distance);
+                        local.add(distance);
                     }
                 }
                 //Update the max and min distance if necessary
-                if(distances[y][x]>maxdistance)
-                    maxdistance = distances[y][x];
-
-                if(distances[y][x]<mindistance)
-                    mindistance = distances[y][x];
-
-
+                synchronized(distances) {
+                    maxdistance = Math.max(maxdistance, max);
+                    mindistance = Math.min(mindistance, min);
+                    quantiles.merge(local);
+                }
             }
-        }
+        });
+        if(mindistance == Double.POSITIVE_INFINITY)
+            mindistance = 0;
+        distanceQuantiles = quantiles;
         return distances;
     }
 
+    /**
+     * Computes and stores the distance along one edge of a node
+     * @return the distance, NaN if the edge leaves the grid
+     */
+    private double edgeDistance(NeighborDistances distances, int node, int edge) {
+        int neighbor = distances.getNeighbor(node, edge);
+        if(neighbor < 0)
+            return Double.NaN;
+        double distance = Math.sqrt(nodeDistances.distanceSquared(node, neighbor));
+        distances.set(node, edge, distance);
+        // the stored value is rounded to a float, the extremes have to match it
+        return distances.get(node, edge);
+    }
+
     /**
     * Given a value vector - will return the node of this som that matches best
     * according to the euclidian distance (Best Matching Unit = BMU)
@@ -224,32 +228,326 @@ public class SOMMap {
     **/
     public int[] getBMU(double[] vector)
     {
-        double mindist = Double.MAX_VALUE;
         int[] xy = new int[2];
-        for(int x=0;x<x_dim;x++)
+        try
         {
-            for(int y=0;y<y_dim;y++)
-            {
-                try
+            BestMatchingUnit bmu = findBMU(vector);
+            xy[0] = bmu.getX();
+            xy[1] = bmu.getY();
+        }
+        catch(VectorException e)
+        {
+            System.out.println(e.getMessage());
+        }
+        return xy;
+        
+    }
+
+    /**
+    * Given a value vector - will return the node of this som that matches best
+    * according to the euclidian distance (Best Matching Unit = BMU) and its distance
+    *
+    * The nodes are compared by their squared distances, and the distance of a node
+    * is only added up as long as it does not exceed the best distance found so far.
+    * Of several nodes with the same distance the one with the smallest x and then
+    * the smallest y "coordinate" is returned.
+    *
+    * Missing components of the vector (NaN) are left out of the distance,
+    * and the components are weighted if @see setComponentWeights was set.
+    *
+    * @return the BMU
+    * @throws VectorException if the vector does not have the dimension of the nodes
+    **/
+    public BestMatchingUnit findBMU(double[] vector) throws VectorException
+    {
+        if(vector.length != dim)
+            throw new VectorException();
+
+        BMUEngine engine = getEngines().engine;
+        MaskedVector masked = MaskedVector.prepare(vector, componentWeights);
+        if(masked != null)
+            return engine.findBMU(masked);
+        return engine.findBMU(vector);
+    }
+
+    /**
+    * Finds the k nodes of this som that match a value vector best
+    *
+    * @param k number of nodes
+    * @return the min(k, number of nodes) best matching nodes, best first
+    * @throws VectorException if the vector does not have the dimension of the nodes
+    **/
+    public BestMatchingUnit[] findNearest(double[] vector, int k) throws VectorException
+    {
+        if(vector.length != dim)
+            throw new VectorException();
+
+        BMUEngine engine = getEngines().engine;
+        MaskedVector masked = MaskedVector.prepare(vector, componentWeights);
+        if(masked != null)
+            return engine.findNearest(masked, k);
+        return engine.findNearest(vector, k);
+    }
+
+    /**
+    * Projects a batch of value vectors onto this som: finds the best and second best
+    * matching unit of every vector in one pass. The vectors are split across all cores.
+    *
+    * The best matching units are the same as those of @see findBMU
+    *
+    * @param vectors the value vectors
+    * @return the BMUs, quantization errors and second best units of all vectors
+    * @throws VectorException if a vector does not have the dimension of the nodes
+    **/
+    public BMUProjection getBMUs(double[][] vectors) throws VectorException
+    {
+        for(int i=0;i<vectors.length;i++)
+        {
+            if(vectors[i].length != dim)
+                throw new VectorException();
+        }
+
+        BMUProjection projection = new BMUProjection(vectors.length, x_dim);
+        Engines current = getEngines();
+        MaskedVector[] masks = prepareMasks(vectors);
+        if(masks != null)
+            current.engine.project(vectors, masks, projection);
+        else if(vectors.length >= GemmBMUEngine.MIN_BATCH)
+            current.batchEngine.project(vectors, projection);
+        else
+            current.engine.project(vectors, projection);
+        return projection;
+    }
+
+    /**
+    * Projects a batch of value vectors onto this som approximately, for quick previews
+    * of large batches of long vectors. Usually, but not always, the best matching
+    * units are the same as those of @see getBMUs, which should be used for the final result.
+    * The quantizer (@see ProductQuantizationBMUEngine ) is trained on the first call.
+    *
+    * @param vectors the value vectors
+    * @return the BMUs, quantization errors and second best units of all vectors
+    * @throws VectorException if a vector does not have the dimension of the nodes
+    **/
+    public BMUProjection getApproximateBMUs(double[][] vectors) throws VectorException
+    {
+        for(int i=0;i<vectors.length;i++)
+        {
+            if(vectors[i].length != dim)
+                throw new VectorException();
+        }
+
+        BMUProjection projection = new BMUProjection(vectors.length, x_dim);
+        MaskedVector[] masks = prepareMasks(vectors);
+        if(masks != null)
+            getApproximateEngine().project(vectors, masks, projection);
+        else
+            getApproximateEngine().project(vectors, projection);
+        return projection;
+    }
+
+    /**
+    * Measures how often @see getApproximateBMUs finds the exact best matching unit.
+    * Vectors with missing or weighted components are always projected exactly and not counted.
+    *
+    * @param sample value vectors to compare, e.g. some frames of a trajectory
+    * @return fraction of the vectors whose approximate BMU is the exact one
+    * @throws VectorException if a vector does not have the dimension of the nodes
+    **/
+    public double getApproximateRecall(double[][] sample) throws VectorException
+    {
+        for(int i=0;i<sample.length;i++)
+        {
+            if(sample[i].length != dim)
+                throw new VectorException();
+        }
+        if(componentWeights != null)
+            return 1;
+        java.util.List<double[]> plain = new java.util.ArrayList<double[]>();
+        for(int i=0;i<sample.length;i++)
+        {
+            if(!MaskedVector.hasMissing(sample[i]))
+                plain.add(sample[i]);
+        }
+        return getApproximateEngine().measureRecall(plain.toArray(new double[plain.size()][]));
+    }
+
+    /**
+    * Finds the BMUs of the frames of a trajectory. The search for a frame starts at
+    * the BMU of the previous frame (@see BMUTracker ), which is much faster than
+    * searching the whole map as long as consecutive frames are similar.
+    * Long trajectories are split into segments that are tracked on all cores.
+    *
+    * The best matching units are the same as those of @see findBMU
+    *
+    * @param frames the value vectors, in the order of the trajectory
+    * @return index of the BMU of every frame in the codebook
+    * @throws VectorException if a frame does not have the dimension of the nodes
+    **/
+    public int[] trackBMUs(final double[][] frames) throws VectorException
+    {
+        for(int i=0;i<frames.length;i++)
+        {
+            if(frames[i].length != dim)
+                throw new VectorException();
+        }
+
+        final int[] nodes = new int[frames.length];
+        ParallelTasks.forRange(frames.length, TRACK_GRAIN, new ParallelTasks.RangeTask<RuntimeException>() {
+            public void run(int from, int to) {
+                BMUTracker tracker = new BMUTracker(SOMMap.this);
+                for (int i = from; i < to; i++)
+                    nodes[i] = tracker.next(frames[i]);
+            }
+        });
+        return nodes;
+    }
+
+    /**
+    * Computes the quantization and topographic error of this som for a data set,
+    * overall and per node. The best and second best matching units of all vectors
+    * are found in one pass (@see getBMUs ) and the errors are summed up on all cores.
+    *
+    * @param data the value vectors
+    * @return the quality measures
+    * @throws VectorException if a vector does not have the dimension of the nodes
+    **/
+    public MapQuality computeQuality(double[][] data) throws VectorException
+    {
+        final BMUProjection projection = getBMUs(data);
+        final int nodes = x_dim * y_dim;
+        final int[] hits = new int[nodes];
+        final double[] distanceSums = new double[nodes];
+        final int[] topographicErrors = new int[nodes];
+        ParallelTasks.forRange(data.length, QUALITY_GRAIN, new ParallelTasks.RangeTask<RuntimeException>() {
+            public void run(int from, int to) {
+                // every task sums up its own counts, they are merged at the end
+                int[] localHits = new int[nodes];
+                double[] localSums = new double[nodes];
+                int[] localErrors = new int[nodes];
+                for (int i = from; i < to; i++)
                 {
-                    double dist = computeDistance(map[y][x],vector);
-                    if(dist<mindist)
+                    int bmu = projection.getBMU(i);
+                    int second = projection.getSecondBMU(i);
+                    localHits[bmu]++;
+                    localSums[bmu] += projection.getQuantizationError(i);
+                    if (second >= 0 && !areNeighbors(bmu, second))
+                        localErrors[bmu]++;
+                }
+                synchronized (hits) {
+                    for (int n = 0; n < nodes; n++)
                     {
-                        mindist = dist;
-                        xy[0] = x;
-                        xy[1] = y;
+                        hits[n] += localHits[n];
+                        distanceSums[n] += localSums[n];
+                        topographicErrors[n] += localErrors[n];
                     }
                 }
-                catch(VectorException e)
+            }
+        });
+        return new MapQuality(x_dim, hits, distanceSums, topographicErrors);
+    }
+
+    /**
+    * Counts for every node the data vectors within the Pareto radius of its value vector
+    * (@see NodeDensities#estimateParetoRadius ), the P-matrix of the data set
+    * @param data the value vectors
+    * @return the densities
+    * @throws VectorException if a vector does not have the dimension of the nodes
+    **/
+    public NodeDensities computeDensities(double[][] data) throws VectorException
+    {
+        for(int i=0;i<data.length;i++)
+        {
+            if(data[i].length != dim)
+                throw new VectorException();
+        }
+        return computeDensities(data, NodeDensities.estimateParetoRadius(data));
+    }
+
+    /**
+    * Counts for every node the data vectors within a radius of its value vector.
+    * The nodes are searched with a k-d tree (@see KDTreeBMUEngine ), the one of the
+    * engine if it is a k-d tree, and the data vectors are counted on all cores. Vectors with missing components are
+    * compared with all nodes by their distance over the present components.
+    *
+    * @param data the value vectors
+    * @param radius the radius
+    * @return the densities
+    * @throws VectorException if a vector does not have the dimension of the nodes
+    **/
+    public NodeDensities computeDensities(final double[][] data, final double radius) throws VectorException
+    {
+        for(int i=0;i<data.length;i++)
+        {
+            if(data[i].length != dim)
+                throw new VectorException();
+        }
+        final int nodes = x_dim * y_dim;
+        BMUEngine engine = getEngines().engine;
+        final KDTreeBMUEngine index = engine instanceof KDTreeBMUEngine
+                ? (KDTreeBMUEngine) engine : new KDTreeBMUEngine(codebook, x_dim);
+        final int[] counts = new int[nodes];
+        ParallelTasks.forRange(data.length, DENSITY_GRAIN, new ParallelTasks.RangeTask<RuntimeException>() {
+            public void run(int from, int to) {
+                // every task counts on its own, the counts are merged at the end
+                int[] local = new int[nodes];
+                double radiusSquared = radius * radius;
+                for (int i = from; i < to; i++)
                 {
-                    System.out.println(e.getMessage());
+                    MaskedVector masked = MaskedVector.prepare(data[i], null);
+                    if (masked == null)
+                    {
+                        index.countWithin(data[i], radius, local);
+                        continue;
+                    }
+                    for (int n = 0; n < nodes; n++)
+                    {
+                        if (codebook.distanceSquared(n, masked.values, masked.weights, radiusSquared) <= radiusSquared)
+                            local[n]++;
+                    }
+                }
+                synchronized (counts) {
+                    for (int n = 0; n < nodes; n++)
+                        counts[n] += local[n];
                 }
-                
             }
-            
+        });
+        return new NodeDensities(x_dim, radius, data.length, counts);
+    }
+
+    /**
+     * @return true if two nodes are next to each other on the grid:
+     *         hexagonal neighbors, or horizontal and vertical ones for rectangular soms
+     */
+    private boolean areNeighbors(int a, int b)
+    {
+        int xA = a % x_dim;
+        int yA = a / x_dim;
+        int xB = b % x_dim;
+        int yB = b / x_dim;
+        if("rect".equals(som_type))
+            return Math.abs(xA - xB) + Math.abs(yA - yB) == 1;
+        return hexDistance(xA, yA, xB, yB) == 1;
+    }
+
+    /**
+     * Prepares the vectors of a batch that have missing components,
+     * or all of them if the components are weighted
+     * @return the prepared vectors, null if the plain distance applies to all vectors
+     */
+    private MaskedVector[] prepareMasks(double[][] vectors)
+    {
+        MaskedVector[] masks = null;
+        for(int i=0;i<vectors.length;i++)
+        {
+            MaskedVector masked = MaskedVector.prepare(vectors[i], componentWeights);
+            if(masked == null)
+                continue;
+            if(masks == null)
+                masks = new MaskedVector[vectors.length];
+            masks[i] = masked;
         }
-        return xy;
-        
+        return masks;
     }
 
     /**
@@ -261,23 +559,93 @@ public class SOMMap {
     }
 
     /**
-    * Will return a map that contains all the distances between all neighboring nodes
+    * Will return a map that contains all the distances between all neighboring nodes,
+    * laid out like the umatrix: (2y-1)x(2x-1) cells, 0 for the cells of the nodes.
+    * The map is created from the neighbor distances on every call (@see getNeighborDistances() ).
     * @return the distance map
     **/
     public double[][] getDistances() {
-        return distanceMap;
+        if(neighborDistances == null)
+            return null;
+        double[][] distances = new double[y_dim*2-1][x_dim*2-1];
+        for(int y=0;y<distances.length;y++)
+        {
+            for(int x=0;x<distances[y].length;x++)
+                distances[y][x] = neighborDistances.getCell(y, x);
+        }
+        return distances;
+    }
+
+    /**
+     * Getter for the distances between the value vectors of all neighboring nodes,
+     * stored once per edge of the grid
+     * @return the distances
+     */
+    public NeighborDistances getNeighborDistances() {
+        return neighborDistances;
+    }
+
+    /**
+     * Getter for the quantiles of the distances between neighboring nodes,
+     * the sketch is updated with the distances
+     * @return the quantiles
+     */
+    public DistanceQuantiles getDistanceQuantiles() {
+        return distanceQuantiles;
     }
 
     /**
      * Getter for the map containing all the value vectors of all the nodes
      * => 3 dimensional: x + y dimension of the map + 1 dimensional array for the value vector
-     * Accessable like this: map[x][y][value vec component]
+     * Accessable like this: map[y][x][value vec component]
+     *
+     * The vectors are stored in a flat codebook (@see getCodebook() ), the map
+     * returned here is a copy: changes to it do not affect this SOM.
      * @return the map
      */
     public double[][][] getMap() {
+        if(codebook == null)
+            return null;
+        double[][][] map = new double[y_dim][x_dim][];
+        for(int y=0;y<y_dim;y++)
+        {
+            for(int x=0;x<x_dim;x++)
+            {
+                map[y][x] = codebook.getVector(getNodeIndex(x, y));
+            }
+        }
         return map;
     }
 
+    /**
+     * Getter for the codebook containing the value vectors of all the nodes
+     * in row-major order (@see getNodeIndex(int, int) )
+     * @return the codebook
+     */
+    public Codebook getCodebook() {
+        return codebook;
+    }
+
+    /**
+     * Index of a node in the codebook
+     * @param x column of the node
+     * @param y row of the node
+     * @return index of the node
+     */
+    public int getNodeIndex(int x, int y) {
+        return y * x_dim + x;
+    }
+
+    /**
+     * Copy of the value vector of a node
+     * @param x column of the node
+     * @param y row of the node
+     * @return the value vector
+     */
+    public double[] getVector(int x, int y) {
+        return codebook.getVector(getNodeIndex(x, y));
+    }
+
     /**
     * Getter for the maximal distance between two neighboring nodes
     * @return maximal distance between two neighboring nodes
@@ -297,12 +665,14 @@ public class SOMMap {
     }
     
     /**
-    * Getter for the color this hexagon is painted with
+    * Getter for the color a hexagon of the umatrix is painted with
+    * @param grid the hexagons of the umatrix
+    * @param cell the hexagon
     * @return hexagon color
     **/
-    public Color getHexagonColor(Hexagon hexagon)
+    public Color getHexagonColor(HexGrid grid, int cell)
     {
-        double brightness = hexagon.getDistance() / this.getMaxDistance();
+        double brightness = grid.getDistance(cell) / this.getMaxDistance();
         return Color.getHSBColor((1.f-(float)brightness) * 0.708f, 1.f, 1.f);
     }
 
@@ -345,16 +715,264 @@ public class SOMMap {
     }
 
     /**
-     * Setter for the map
-     * @param map the map to set
+     * Setter for the map, the vectors are copied into a new codebook
+     * @param map the map to set, accessable like this: map[y][x][value vec component]
      */
     public void setMap(double[][][] map) {
-        this.map = map;
+        setCodebook(DoubleCodebook.fromMap(map));
+    }
+
+    /**
+     * Setter for the codebook, x, y and dim have to be set before
+     * @param codebook the codebook to set
+     */
+    public void setCodebook(Codebook codebook) {
+        if(codebook.getNodeCount() != x_dim * y_dim || codebook.getDim() != dim)
+            throw new IllegalArgumentException("The codebook does not match the dimensions of the SOM.");
+        this.codebook = codebook;
+        invalidateEngines();
 
-        try {
-            distanceMap = computeDistanceMap();
-        } catch (VectorException ex) {
-            Logger.getLogger(SOMMap.class.getName()).log(Level.SEVERE, null, ex);
+        neighborDistances = computeNeighborDistances();
+    }
+
+    /**
+     * Replaces the value vectors of some nodes, e.g. while the map is refined,
+     * and recomputes only the distances along the edges of these nodes.
+     * A read-only codebook (e.g. a memory mapped one) is copied to memory first,
+     * a quantized one is copied to a float codebook.
+     * @param indices indices of the nodes (@see getNodeIndex )
+     * @param vectors the new value vectors, in the order of the indices
+     * @throws VectorException if a vector does not have the dimension of the nodes
+     */
+    public void updateNodes(int[] indices, double[][] vectors) throws VectorException {
+        if(indices.length != vectors.length)
+            throw new IllegalArgumentException("There has to be one vector per node.");
+        for(int i=0;i<indices.length;i++)
+        {
+            if(indices[i] < 0 || indices[i] >= x_dim * y_dim)
+                throw new IllegalArgumentException("There is no node " + indices[i] + ".");
+            if(vectors[i].length != dim)
+                throw new VectorException();
+        }
+
+        // a quantized codebook would clamp the new vectors to the ranges of the components it was loaded with
+        if(codebook instanceof QuantizedCodebook)
+            codebook = new FloatCodebook(codebook);
+        else if(codebook.isReadOnly())
+            codebook = codebook.getPrecision() == Codebook.PRECISION_FLOAT
+                    ? new FloatCodebook(codebook) : new DoubleCodebook(codebook);
+        for(int i=0;i<indices.length;i++)
+            codebook.setVector(indices[i], vectors[i]);
+        // the precomputed data of the engines depends on all vectors, they are
+        // created again by the next query instead of after every update
+        invalidateEngines();
+
+        // a map created from an array has no distances yet (@see setCodebook )
+        if(neighborDistances == null)
+            return;
+        boolean rescan = false;
+        for(int i=0;i<indices.length;i++)
+        {
+            // every edge of the node starts at the node itself or at one of its neighbors
+            int nodeX = indices[i] % x_dim;
+            int nodeY = indices[i] / x_dim;
+            for(int y=Math.max(0, nodeY-1);y<=nodeY;y++)
+            {
+                for(int x=Math.max(0, nodeX-1);x<=Math.min(x_dim-1, nodeX+1);x++)
+                {
+                    int node = getNodeIndex(x, y);
+                    for(int edge=0;edge<3;edge++)
+                    {
+                        double old = neighborDistances.get(node, edge);
+                        double distance = edgeDistance(neighborDistances, node, edge);
+                        if(Double.isNaN(distance))
+                            continue;
+                        distanceQuantiles.remove(old);
+                        distanceQuantiles.add(distance);
+                        // the extremes are only searched again if one of them was lost
+                        if((old == maxdistance && distance < old) || (old == mindistance && distance > old))
+                            rescan = true;
+                        maxdistance = Math.max(maxdistance, distance);
+                        mindistance = Math.min(mindistance, distance);
+                    }
+                }
+            }
+        }
+        if(rescan)
+        {
+            maxdistance = 0;
+            mindistance = Double.POSITIVE_INFINITY;
+            for(int node=0;node<x_dim*y_dim;node++)
+            {
+                for(int edge=0;edge<3;edge++)
+                {
+                    double distance = neighborDistances.get(node, edge);
+                    if(Double.isNaN(distance))
+                        continue;
+                    maxdistance = Math.max(maxdistance, distance);
+                    mindistance = Math.min(mindistance, distance);
+                }
+            }
+            if(mindistance == Double.POSITIVE_INFINITY)
+                mindistance = 0;
+        }
+    }
+
+    /**
+     * Getter for the engine that computes the distances of this SOM
+     * @return the engine
+     */
+    public BMUEngine getBMUEngine() {
+        return getEngines().engine;
+    }
+
+    /**
+     * Getter for the bounds BMUTracker proves its results with, they are computed
+     * lazily and kept until the codebook or the engine changes
+     * @return the bounds
+     */
+    synchronized RingBounds getRingBounds() {
+        if(ringBounds == null)
+            ringBounds = new RingBounds(this, getEngines().engine);
+        return ringBounds;
+    }
+
+    /**
+     * Getter for the engine of the approximate projections, it is created
+     * on the first call and kept until the codebook changes
+     * @return the engine
+     */
+    private synchronized ProductQuantizationBMUEngine getApproximateEngine() {
+        if(approximateEngine == null)
+        {
+            BMUEngine engine = getEngines().engine;
+            approximateEngine = engine instanceof ProductQuantizationBMUEngine
+                    ? (ProductQuantizationBMUEngine) engine
+                    : new ProductQuantizationBMUEngine(codebook, x_dim);
+        }
+        return approximateEngine;
+    }
+
+    /**
+     * Getter for the component planes, they are computed on the first call
+     * and kept until the codebook changes
+     * @return the planes
+     */
+    public synchronized ComponentPlanes getComponentPlanes() {
+        if(componentPlanes == null)
+            componentPlanes = new ComponentPlanes(codebook, x_dim);
+        return componentPlanes;
+    }
+
+    /**
+     * Getter for the name of a component, e.g. the name of the coordinate
+     * exported by SOMExport
+     * @param component index of the component
+     * @return the name, "component i" (counting from 1) if the components have no names
+     */
+    public String getComponentName(int component) {
+        if(componentNames != null)
+            return componentNames[component];
+        return "component " + (component + 1);
+    }
+
+    /**
+     * Getter for the names of the components
+     * @return a copy of the names, null if the components have no names
+     */
+    public String[] getComponentNames() {
+        return componentNames == null ? null : componentNames.clone();
+    }
+
+    /**
+     * Names the components of the value vectors
+     * @param names one name per component, null to remove the names
+     */
+    public void setComponentNames(String[] names) {
+        if(names != null && names.length != dim)
+            throw new IllegalArgumentException("There has to be one name per component.");
+        this.componentNames = names == null ? null : names.clone();
+    }
+
+    /**
+     * Getter for the weights of the components in the distance of a value vector to a node
+     * @return a copy of the weights, null if all components have the weight 1
+     */
+    public double[] getComponentWeights() {
+        return componentWeights == null ? null : componentWeights.clone();
+    }
+
+    /**
+     * Weights the components in the distance of a value vector to a node, e.g. to
+     * compensate for components of different scales. The engines only speed up the plain
+     * distance, with weights every search compares the vector with all nodes.
+     * The distances between the nodes (umatrix) are not weighted.
+     * @param weights weight of every component, null to weight all components with 1
+     */
+    public void setComponentWeights(double[] weights) {
+        if(weights != null)
+        {
+            if(weights.length != dim)
+                throw new IllegalArgumentException("There has to be one weight per component.");
+            for(int i=0;i<weights.length;i++)
+            {
+                if(!(weights[i] >= 0) || Double.isInfinite(weights[i]))
+                    throw new IllegalArgumentException("The weights have to be finite and not negative.");
+            }
+            weights = weights.clone();
+        }
+        this.componentWeights = weights;
+    }
+
+    /**
+     * Selects the engine that computes the distances of this SOM
+     * @param type one of the BMUEngine constants
+     */
+    public void setBMUEngine(int type) {
+        this.engineType = type;
+        if(codebook != null)
+            invalidateEngines();
+    }
+
+    /**
+     * Drops the engines and everything computed from the vectors of the nodes,
+     * after the codebook or the type of the engine changed
+     */
+    private void invalidateEngines() {
+        // the same distances the engine computes, all engines but these two use the lanes
+        boolean scalar = engineType == BMUEngine.SCALAR || engineType == BMUEngine.GEMM;
+        nodeDistances = BMUEngine.create(scalar ? BMUEngine.SCALAR : BMUEngine.LANES, codebook, x_dim);
+        synchronized(this) {
+            engines = null;
+            ringBounds = null;
+            approximateEngine = null;
+            componentPlanes = null;
+        }
+    }
+
+    /**
+     * Getter for the engines of the current codebook, they are created on the first
+     * call after a change. Automatically selected engines use the blocked matrix
+     * product for large batches if the codebook is not stored in a heap array and
+     * too small for the k-d tree, for heap arrays the early abandoning of the lane
+     * kernel is faster.
+     * @return the engines
+     */
+    private Engines getEngines() {
+        Engines current = engines;
+        if(current != null)
+            return current;
+        synchronized(this) {
+            if(engines == null)
+            {
+                BMUEngine engine = BMUEngine.create(engineType, codebook, x_dim);
+                BMUEngine batchEngine = engine;
+                if(engineType == BMUEngine.AUTOMATIC && engine.getType() != BMUEngine.KDTREE
+                        && !LaneBMUEngine.supports(codebook))
+                    batchEngine = new GemmBMUEngine(codebook, x_dim);
+                engines = new Engines(engine, batchEngine);
+            }
+            return engines;
         }
     }
 
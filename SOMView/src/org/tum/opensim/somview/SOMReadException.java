@@ -12,4 +12,54 @@ import java.io.IOException;
  */
 public class SOMReadException extends IOException{
 
+    /**
+     * Line of the file the error occured in (1-based), 0 if unknown
+     */
+    private int line;
+
+    /**
+     * Column of the line the error occured in (1-based), 0 if unknown
+     */
+    private int column;
+
+    public SOMReadException()
+    {
+        super();
+    }
+
+    /**
+     * Constructor for errors that can not be attributed to a position in the file
+     * @param message description of the error
+     */
+    public SOMReadException(String message)
+    {
+        super(message);
+    }
+
+    /**
+     * Constructor for errors at a known position in the file
+     * @param message description of the error
+     * @param line line the error occured in (1-based)
+     * @param column column the error occured in (1-based)
+     */
+    public SOMReadException(String message, int line, int column)
+    {
+        super("Line " + line + ", column " + column + ": " + message);
+        this.line = line;
+        this.column = column;
+    }
+
+    /**
+     * @return the line the error occured in (1-based), 0 if unknown
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * @return the column the error occured in (1-based), 0 if unknown
+     */
+    public int getColumn() {
+        return column;
+    }
 }
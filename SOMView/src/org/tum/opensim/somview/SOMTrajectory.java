@@ -126,7 +126,11 @@ public class SOMTrajectory {
                     for(int i=0;i<vecdim;i++)
                     {
                         try{
-                                currentvector[i] = Double.parseDouble(tokens[i]);
+                                // missing values ('x' or NaN) are left out of the BMU search
+                                if(tokens[i].equals("x"))
+                                    currentvector[i] = Double.NaN;
+                                else
+                                    currentvector[i] = Double.parseDouble(tokens[i]);
                             }
                             catch(NumberFormatException e){
                                 JOptionPane.showMessageDialog(null,tokens[i]+ " is not a double value.","Parse exception",JOptionPane.ERROR_MESSAGE);
@@ -212,9 +216,23 @@ public class SOMTrajectory {
     private void computeBMUsAndHitCounts(SOMMap som)
     {
         bmus = new int[path.length][2];
-        for(int i=0;i<bmus.length;i++)
+        try
         {
-            bmus[i] = som.getBMU(path[i]);
+            // consecutive frames are similar, the search for a BMU starts at the previous one
+            int[] nodes = som.trackBMUs(path);
+            for(int i=0;i<bmus.length;i++)
+            {
+                bmus[i][0] = nodes[i] % som.getX();
+                bmus[i][1] = nodes[i] / som.getX();
+            }
+        }
+        catch(VectorException e)
+        {
+            // some frame does not match the som, handle the frames one by one
+            for(int i=0;i<bmus.length;i++)
+            {
+                bmus[i] = som.getBMU(path[i]);
+            }
         }
         
         
@@ -7,6 +7,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.LinkedList;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.prefs.Preferences;
@@ -29,6 +30,17 @@ public class SOMView extends javax.swing.JPanel
 
     private static SOMMap associated_map;
     private static TrajectoryTableModel tableModel;
+
+    //Entries of the component plane selection before the components
+    private static final int UMATRIX_ENTRY = 0;
+    private static final int PMATRIX_ENTRY = 1;
+    private static final int USTARMATRIX_ENTRY = 2;
+    private static final int FIRST_COMPONENT_ENTRY = 3;
+
+    //The trajectories the densities of the umatrix were estimated from
+    private LinkedList<SOMTrajectory> densityTrajectories;
+    //Estimates the densities in the background, null if it is not running
+    private SwingWorker<NodeDensities, Object> densityWorker;
     
     /** Creates new form SOMView */
     public SOMView() {
@@ -61,8 +73,14 @@ public class SOMView extends javax.swing.JPanel
         loadSOMButton = new javax.swing.JButton();
         displayDotsCheckbox = new javax.swing.JCheckBox();
         renderToImageButton = new javax.swing.JButton();
+        saveBinaryButton = new javax.swing.JButton();
         greyscaleCheckBox = new javax.swing.JCheckBox();
         interpolateCheckbox = new javax.swing.JCheckBox();
+        colorScalingLabel = new javax.swing.JLabel();
+        colorScalingComboBox = new javax.swing.JComboBox();
+        componentPlaneLabel = new javax.swing.JLabel();
+        componentPlaneComboBox = new javax.swing.JComboBox();
+        componentOverviewButton = new javax.swing.JButton();
         trajectoryPanel = new javax.swing.JPanel();
         loadTrajectoriesButton = new javax.swing.JButton();
         scrollPane = new javax.swing.JScrollPane();
@@ -84,10 +102,10 @@ public class SOMView extends javax.swing.JPanel
         somFileChooserDialog.setAcceptAllFileFilterUsed(false);
         somFileChooserDialog.setFileFilter(new FileFilter() {
             public boolean accept(File f) {
-                return f.getName().toLowerCase().endsWith(".cod") || f.isDirectory();
+                return f.getName().toLowerCase().endsWith(".cod") || f.getName().toLowerCase().endsWith(".bcod") || f.isDirectory();
             }
             public String getDescription() {
-                return "Self-organizing maps(*.cod)";
+                return "Self-organizing maps(*.cod, *.bcod)";
             }
         });
 
@@ -139,6 +157,13 @@ public class SOMView extends javax.swing.JPanel
             }
         });
 
+        saveBinaryButton.setText(org.openide.util.NbBundle.getMessage(SOMView.class, "SOMView.saveBinaryButton.text")); // NOI18N
+        saveBinaryButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                saveBinaryButtonActionPerformed(evt);
+            }
+        });
+
         greyscaleCheckBox.setText(org.openide.util.NbBundle.getMessage(SOMView.class, "SOMView.greyscaleCheckBox.text")); // NOI18N
         greyscaleCheckBox.addItemListener(new java.awt.event.ItemListener() {
             public void itemStateChanged(java.awt.event.ItemEvent evt) {
@@ -154,6 +179,30 @@ public class SOMView extends javax.swing.JPanel
             }
         });
 
+        colorScalingLabel.setText(org.openide.util.NbBundle.getMessage(SOMView.class, "SOMView.colorScalingLabel.text")); // NOI18N
+
+        colorScalingComboBox.setModel(new javax.swing.DefaultComboBoxModel(new String[] { "linear", "histogram equalized", "clipped to 2% - 98% quantiles" }));
+        colorScalingComboBox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                colorScalingComboBoxActionPerformed(evt);
+            }
+        });
+
+        componentPlaneLabel.setText(org.openide.util.NbBundle.getMessage(SOMView.class, "SOMView.componentPlaneLabel.text")); // NOI18N
+
+        componentPlaneComboBox.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                componentPlaneComboBoxActionPerformed(evt);
+            }
+        });
+
+        componentOverviewButton.setText(org.openide.util.NbBundle.getMessage(SOMView.class, "SOMView.componentOverviewButton.text")); // NOI18N
+        componentOverviewButton.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                componentOverviewButtonActionPerformed(evt);
+            }
+        });
+
         javax.swing.GroupLayout mainPanelLayout = new javax.swing.GroupLayout(mainPanel);
         mainPanel.setLayout(mainPanelLayout);
         mainPanelLayout.setHorizontalGroup(
@@ -167,7 +216,13 @@ public class SOMView extends javax.swing.JPanel
                     .addGroup(mainPanelLayout.createSequentialGroup()
                         .addComponent(loadSOMButton)
                         .addGap(18, 18, 18)
-                        .addComponent(renderToImageButton)))
+                        .addComponent(renderToImageButton))
+                    .addComponent(saveBinaryButton)
+                    .addComponent(colorScalingLabel)
+                    .addComponent(colorScalingComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, 200, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(componentPlaneLabel)
+                    .addComponent(componentPlaneComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, 200, javax.swing.GroupLayout.PREFERRED_SIZE)
+                    .addComponent(componentOverviewButton))
                 .addContainerGap(javax.swing.GroupLayout.DEFAULT_SIZE, Short.MAX_VALUE))
         );
         mainPanelLayout.setVerticalGroup(
@@ -177,13 +232,25 @@ public class SOMView extends javax.swing.JPanel
                 .addGroup(mainPanelLayout.createParallelGroup(javax.swing.GroupLayout.Alignment.BASELINE)
                     .addComponent(loadSOMButton)
                     .addComponent(renderToImageButton))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(saveBinaryButton)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
                 .addComponent(displayDotsCheckbox)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(greyscaleCheckBox)
                 .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
                 .addComponent(interpolateCheckbox)
-                .addContainerGap(387, Short.MAX_VALUE))
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addComponent(colorScalingLabel)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(colorScalingComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.UNRELATED)
+                .addComponent(componentPlaneLabel)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(componentPlaneComboBox, javax.swing.GroupLayout.PREFERRED_SIZE, javax.swing.GroupLayout.DEFAULT_SIZE, javax.swing.GroupLayout.PREFERRED_SIZE)
+                .addPreferredGap(javax.swing.LayoutStyle.ComponentPlacement.RELATED)
+                .addComponent(componentOverviewButton)
+                .addContainerGap(205, Short.MAX_VALUE))
         );
 
         menuPane.addTab(org.openide.util.NbBundle.getMessage(SOMView.class, "SOMView.mainPanel.TabConstraints.tabTitle"), mainPanel); // NOI18N
@@ -383,6 +450,11 @@ public class SOMView extends javax.swing.JPanel
     {
         //If trajectories were successfully loaded => register them in the umatrix
         uMatrix.setTrajectories(trajectories);          
+        //The densities of the previous trajectories do not apply anymore
+        int selected = componentPlaneComboBox.getSelectedIndex();
+        if(selected == PMATRIX_ENTRY || selected == USTARMATRIX_ENTRY){
+            componentPlaneComboBox.setSelectedIndex(UMATRIX_ENTRY);
+        }
         
         tableModel = new TrajectoryTableModel(trajectories);
         tableModel.addTableModelListener(uMatrix);
@@ -486,14 +558,37 @@ public class SOMView extends javax.swing.JPanel
         {  
             //.. get a file object and try to load a SOM class from it
             // the file has to be a .cod file as specified by the SOM Toolbox documentation
+            // or a binary SOM file as written by BinaryCodebookFile
             // see javadoc of SOMMap.readFile for details
-            File file = somFileChooserDialog.getSelectedFile();             
+            File file = somFileChooserDialog.getSelectedFile();
+            //Lower precisions need less memory and allow to load larger maps,
+            //the order of the options matches the Codebook.PRECISION_* constants
+            String[] options = {"64 bit", "32 bit", "16 bit quantized", "8 bit quantized"};
+            int lastPrecision = Preferences.userNodeForPackage(TheApp.class)
+                                .getInt("SOMViewUmatrix-Precision", Codebook.PRECISION_DOUBLE);
+            int precision = JOptionPane.showOptionDialog(null,
+                    "Keep the codebook values in memory with which precision?",
+                    "Precision", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE,
+                    null, options, options[Math.max(0, Math.min(lastPrecision, options.length - 1))]);
+            if (precision < 0) {
+                return;
+            }
+            Preferences.userNodeForPackage(TheApp.class)
+                .putInt("SOMViewUmatrix-Precision", precision);
             try {
-                progressUpdate(new ProgressEvent(this, 
+                progressUpdate(new ProgressEvent(this,
                         "Reading SOM from file - this may take some time", true));
-                associated_map = SOMMap.readFile(file); 
-                progressUpdate(new ProgressEvent(this, 
+                associated_map = SOMMap.readFile(file, precision);
+                progressUpdate(new ProgressEvent(this,
                         "Reading SOM from file finished", false));
+            } catch (SOMReadException ex) {
+                //The file is not a valid .cod file => tell the user where the error is
+                progressUpdate(new ProgressEvent(this,
+                        "Reading SOM from file failed", false));
+                JOptionPane.showMessageDialog(null, ex.getMessage(),
+                        "Error reading SOM", JOptionPane.ERROR_MESSAGE);
+                associated_map = null;
+                return;
             } catch (FileNotFoundException ex) {
                 Logger.getLogger(SOMView.class.getName()).log(Level.SEVERE, null, ex);
             } catch (IOException ex) {
@@ -501,6 +596,8 @@ public class SOMView extends javax.swing.JPanel
             }
             //Set the map we just loaded as SOM in the umatrix display class
             uMatrix.setMap(associated_map);
+            //Offer the planes of its components next to the umatrix
+            fillComponentPlanes();
             this.zoomSlider.setValue(this.zoomSlider.getValue());
             uMatrix.invalidate(); 
             uMatrix.repaint();
@@ -516,6 +613,211 @@ public class SOMView extends javax.swing.JPanel
         
 	}//GEN-LAST:event_loadSOMButtonActionPerformed
 
+    /**
+    * Fills the component plane selection: the umatrix, the P-matrix and
+    * the U*-matrix first, then the components of the loaded SOM
+    **/
+    private void fillComponentPlanes() {
+        componentPlaneComboBox.removeAllItems();
+        if(associated_map == null){
+            return;
+        }
+        componentPlaneComboBox.addItem("umatrix");
+        componentPlaneComboBox.addItem("P-matrix (trajectory density)");
+        componentPlaneComboBox.addItem("U*-matrix");
+        for(int i = 0; i < associated_map.getDim(); i++){
+            componentPlaneComboBox.addItem(associated_map.getComponentName(i));
+        }
+    }
+
+    /**
+    * Is called when the user selects the umatrix or a component plane
+    **/
+    private void componentPlaneComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_componentPlaneComboBoxActionPerformed
+        int index = componentPlaneComboBox.getSelectedIndex();
+        if(uMatrix.getMap() == null || index < 0){
+            return;
+        }
+        //The planes are cached, so switching between them only repaints the umatrix
+        if(index >= FIRST_COMPONENT_ENTRY){
+            uMatrix.setComponentPlane(index - FIRST_COMPONENT_ENTRY);
+            return;
+        }
+        uMatrix.setComponentPlane(UMatrix.NO_COMPONENT_PLANE);
+        if(index == UMATRIX_ENTRY){
+            uMatrix.setDensityMatrix(uMatrix.getNodeDensities(), UMatrix.MATRIX_U);
+        }
+        else{
+            showDensityMatrix(index == PMATRIX_ENTRY ? UMatrix.MATRIX_P : UMatrix.MATRIX_USTAR);
+        }
+    }//GEN-LAST:event_componentPlaneComboBoxActionPerformed
+
+    /**
+    * Shows the P-matrix or the U*-matrix of the loaded trajectories. The densities
+    * are estimated in the background the first time, the matrix selected when
+    * they are done is shown then. If the SOM or the trajectories changed while
+    * they were estimated, they are estimated again for the current ones.
+    **/
+    private void showDensityMatrix(int matrix) {
+        final LinkedList<SOMTrajectory> trajectories = uMatrix.getTrajectories();
+        if(trajectories == null || trajectories.isEmpty()){
+            JOptionPane.showMessageDialog(null, "Please load trajectories, the density is estimated from their frames");
+            componentPlaneComboBox.setSelectedIndex(UMATRIX_ENTRY);
+            return;
+        }
+        if(uMatrix.getNodeDensities() != null && densityTrajectories == trajectories){
+            uMatrix.setDensityMatrix(uMatrix.getNodeDensities(), matrix);
+            return;
+        }
+        if(densityWorker != null){
+            //Already running, the selection is applied when it is done
+            return;
+        }
+        //All frames of all trajectories are the data set
+        int frames = 0;
+        for(SOMTrajectory trajectory: trajectories){
+            frames += trajectory.getTrajectory().length;
+        }
+        final double[][] data = new double[frames][];
+        int i = 0;
+        for(SOMTrajectory trajectory: trajectories){
+            for(double[] frame: trajectory.getTrajectory()){
+                data[i++] = frame;
+            }
+        }
+        final SOMMap som = associated_map;
+        progressUpdate(new ProgressEvent(this,
+                "Estimating the density of the trajectories - this may take some time", true));
+        densityWorker = new SwingWorker<NodeDensities, Object>() {
+            @Override
+            protected NodeDensities doInBackground() throws Exception {
+                return som.computeDensities(data);
+            }
+
+            @Override
+            protected void done() {
+                densityWorker = null;
+                progressUpdate(new ProgressEvent(SOMView.this,
+                        "Estimating the density of the trajectories finished", false));
+                NodeDensities densities;
+                try {
+                    densities = get();
+                } catch (InterruptedException ex) {
+                    Logger.getLogger(SOMView.class.getName()).log(Level.SEVERE, null, ex);
+                    return;
+                } catch (ExecutionException ex) {
+                    Logger.getLogger(SOMView.class.getName()).log(Level.SEVERE, null, ex.getCause());
+                    JOptionPane.showMessageDialog(null, "The density of the trajectories could not be estimated",
+                            "Error estimating density", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                //Another SOM or other trajectories might have been loaded meanwhile,
+                //the selected matrix is estimated again for them
+                if(uMatrix.getMap() != som || uMatrix.getTrajectories() != trajectories){
+                    int selected = componentPlaneComboBox.getSelectedIndex();
+                    if(uMatrix.getMap() != null
+                            && (selected == PMATRIX_ENTRY || selected == USTARMATRIX_ENTRY)){
+                        showDensityMatrix(selected == PMATRIX_ENTRY ? UMatrix.MATRIX_P : UMatrix.MATRIX_USTAR);
+                    }
+                    return;
+                }
+                densityTrajectories = trajectories;
+                int selected = componentPlaneComboBox.getSelectedIndex();
+                if(selected == PMATRIX_ENTRY){
+                    uMatrix.setDensityMatrix(densities, UMatrix.MATRIX_P);
+                }
+                else if(selected == USTARMATRIX_ENTRY){
+                    uMatrix.setDensityMatrix(densities, UMatrix.MATRIX_USTAR);
+                }
+                else{
+                    uMatrix.setDensityMatrix(densities, UMatrix.MATRIX_U);
+                }
+            }
+        };
+        densityWorker.execute();
+    }
+
+    /**
+    * Opens a window with small images of all component planes,
+    * clicking one of them shows it in the umatrix
+    **/
+    private void componentOverviewButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_componentOverviewButtonActionPerformed
+        //Only show the planes if a SOM has already been loaded
+        if(associated_map == null){
+            JOptionPane.showMessageDialog(null, "Please load a SOM before you view its component planes");
+            return;
+        }
+        progressUpdate(new ProgressEvent(this,
+                "Rendering component planes", true));
+        final ComponentPlaneOverview overview = new ComponentPlaneOverview(associated_map, uMatrix.getColorMode());
+        progressUpdate(new ProgressEvent(this,
+                "Rendering component planes finished", false));
+        overview.setSelectedComponent(uMatrix.getComponentPlane());
+        overview.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent e) {
+                componentPlaneComboBox.setSelectedIndex(overview.getSelectedComponent() + FIRST_COMPONENT_ENTRY);
+            }
+        });
+        JDialog dialog = new JDialog(SwingUtilities.getWindowAncestor(this), "Component planes");
+        dialog.add(new JScrollPane(overview));
+        dialog.pack();
+        dialog.setSize(Math.min(dialog.getWidth(), 800), Math.min(dialog.getHeight(), 600));
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }//GEN-LAST:event_componentOverviewButtonActionPerformed
+
+    /**
+    * Is called when the user chooses to save the loaded SOM in the binary format
+    **/
+    private void saveBinaryButtonActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_saveBinaryButtonActionPerformed
+        //Only save a SOM if a SOM has already been loaded
+        if(associated_map == null){
+            JOptionPane.showMessageDialog(null, "Please load a SOM before you save it");
+            return;
+        }
+        //Get a "save" file dialog
+        JFileChooser saveTo = new JFileChooser();
+        saveTo.setDialogTitle("Save SOM in binary format to:");
+        saveTo.setDialogType(JFileChooser.SAVE_DIALOG);
+        saveTo.setFileFilter(new FileNameExtensionFilter("Binary self-organizing maps(*.bcod)", "bcod"));
+        String exportPath = Preferences.userNodeForPackage(TheApp.class)
+                                .get("SOMViewUmatrix-LastPath",
+                                    System.getProperty("user.home"));
+        saveTo.setCurrentDirectory(new File(exportPath));
+        if (saveTo.showSaveDialog(null) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        //Add the extension if necessary
+        File selection = saveTo.getSelectedFile();
+        if (!selection.getName().toLowerCase().endsWith(BinaryCodebookFile.EXTENSION)) {
+            selection = new File(selection.getParentFile(), selection.getName() + BinaryCodebookFile.EXTENSION);
+        }
+        //Single precision halves the file size
+        String[] options = {"64 bit", "32 bit", "cancel"};
+        int precision = JOptionPane.showOptionDialog(null,
+                "Store the codebook values with 64 bit or 32 bit precision?",
+                "Precision", JOptionPane.DEFAULT_OPTION, JOptionPane.QUESTION_MESSAGE,
+                null, options, options[0]);
+        if (precision != 0 && precision != 1) {
+            return;
+        }
+        progressUpdate(new ProgressEvent(this,
+                "Writing binary SOM file", true));
+        try {
+            BinaryCodebookFile.write(associated_map, selection, precision == 1);
+        } catch (IOException ex) {
+            //E.g. the file is locked or the disk is full, the old file is kept then
+            Logger.getLogger(SOMView.class.getName()).log(Level.SEVERE, null, ex);
+            progressUpdate(new ProgressEvent(this,
+                    "Writing binary SOM file failed", false));
+            JOptionPane.showMessageDialog(null, "The SOM could not be written to " + selection + ": " + ex.getMessage(),
+                    "Error writing SOM", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        progressUpdate(new ProgressEvent(this,
+                "Writing binary SOM file finished", false));
+    }//GEN-LAST:event_saveBinaryButtonActionPerformed
+
 	/**
 	* Is call when the user chooses to render the umatrix to an image file
 	**/
@@ -575,6 +877,14 @@ public class SOMView extends javax.swing.JPanel
         uMatrix.invalidate();
     }//GEN-LAST:event_greyscaleCheckBoxItemStateChanged
 
+    /**
+    * Is called when another color scaling is selected,
+    * the entries are in the order of the UMatrix.SCALING_* constants
+    **/
+    private void colorScalingComboBoxActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_colorScalingComboBoxActionPerformed
+        uMatrix.setColorScaling(colorScalingComboBox.getSelectedIndex());
+    }//GEN-LAST:event_colorScalingComboBoxActionPerformed
+
     /**
     * Is called when the zoom slider state is changed
     **/
@@ -655,6 +965,11 @@ public class SOMView extends javax.swing.JPanel
     }
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JPanel bottomControlsPanel;
+    private javax.swing.JButton componentOverviewButton;
+    private javax.swing.JComboBox colorScalingComboBox;
+    private javax.swing.JLabel colorScalingLabel;
+    private javax.swing.JComboBox componentPlaneComboBox;
+    private javax.swing.JLabel componentPlaneLabel;
     private org.tum.opensim.somview.ContourLineControls contourPanel;
     private javax.swing.JPanel controlsPanel;
     private javax.swing.JCheckBox displayDotsCheckbox;
@@ -667,6 +982,7 @@ public class SOMView extends javax.swing.JPanel
     private javax.swing.JLabel qualityLabel;
     private javax.swing.JSlider qualitySlider;
     private javax.swing.JButton renderToImageButton;
+    private javax.swing.JButton saveBinaryButton;
     private javax.swing.JLabel scaleHitsLabel;
     private javax.swing.JPanel scaleHitsPanel;
     private javax.swing.JSlider scaleHitsSlider;
@@ -0,0 +1,27 @@
+package org.tum.opensim.somview;
+
+/**
+ * Engine that lets the codebook compute the distances. Works with every codebook.
+ */
+public class ScalarBMUEngine extends BMUEngine {
+
+    /**
+     * Constructor
+     * @param codebook the codebook the distances are computed for
+     * @param x_dim number of nodes in x direction of the SOM
+     */
+    public ScalarBMUEngine(Codebook codebook, int x_dim)
+    {
+        super(codebook, x_dim);
+    }
+
+    @Override
+    public int getType() {
+        return SCALAR;
+    }
+
+    @Override
+    protected double distanceSquared(int node, double[] vector, double bound) {
+        return codebook.distanceSquared(node, vector, bound);
+    }
+}
@@ -0,0 +1,116 @@
+package org.tum.opensim.somview;
+
+/**
+ * Codebook that quantizes every component to a 16 bit integer,
+ * a quarter of the memory needed by DoubleCodebook
+ */
+public class ShortCodebook extends QuantizedCodebook {
+
+    private final short[] data;
+
+    /**
+     * Quantizes another codebook
+     * @param source the codebook to quantize
+     */
+    public ShortCodebook(Codebook source)
+    {
+        super(source, Short.MIN_VALUE, Short.MAX_VALUE);
+        data = new short[nodes * dim];
+        double[] vector = new double[dim];
+        for (int n = 0; n < nodes; n++)
+        {
+            source.getVector(n, vector);
+            setVector(n, vector);
+        }
+    }
+
+    /**
+     * Creates a codebook for values in a known range, all components are at level 0
+     * @param nodes number of nodes
+     * @param dim dimensionality of the value vectors
+     * @param range smallest (range[0]) and largest (range[1]) value of every component
+     */
+    public ShortCodebook(int nodes, int dim, double[][] range)
+    {
+        super(nodes, dim, range, Short.MIN_VALUE, Short.MAX_VALUE);
+        data = new short[nodes * dim];
+    }
+
+    @Override
+    public int getPrecision() {
+        return PRECISION_INT16;
+    }
+
+    @Override
+    public double get(int node, int component) {
+        return offset[component] + scale[component] * data[node * dim + component];
+    }
+
+    @Override
+    public void set(int node, int component, double value) {
+        data[node * dim + component] = (short) quantize(component, value);
+    }
+
+    @Override
+    public void getVector(int node, double[] dest, int offset) {
+        int base = node * dim;
+        for (int i = 0; i < dim; i++)
+            dest[offset + i] = this.offset[i] + scale[i] * data[base + i];
+    }
+
+    @Override
+    public void setVector(int node, double[] src) {
+        int base = node * dim;
+        for (int i = 0; i < dim; i++)
+            data[base + i] = (short) quantize(i, src[i]);
+    }
+
+    @Override
+    public double distanceSquared(int node, double[] vector) {
+        double sum = 0;
+        int base = node * dim;
+        for (int i = 0; i < dim; i++)
+        {
+            double diff = offset[i] + scale[i] * data[base + i] - vector[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double distanceSquared(int node, double[] vector, double bound) {
+        double sum = 0;
+        int base = node * dim;
+        int i = 0;
+        for (int blocks = dim - ABANDON_BLOCK; i <= blocks; )
+        {
+            for (int end = i + ABANDON_BLOCK; i < end; i++)
+            {
+                double diff = offset[i] + scale[i] * data[base + i] - vector[i];
+                sum += diff * diff;
+            }
+            if (sum > bound)
+                return sum;
+        }
+        for (; i < dim; i++)
+        {
+            double diff = offset[i] + scale[i] * data[base + i] - vector[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    @Override
+    public double distanceSquared(int a, int b) {
+        double sum = 0;
+        int offsetA = a * dim;
+        int offsetB = b * dim;
+        for (int i = 0; i < dim; i++)
+        {
+            // the offsets cancel out
+            double diff = scale[i] * (data[offsetA + i] - data[offsetB + i]);
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,307 @@
+package org.tum.opensim.somview;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Engine that skips nodes which the triangle inequality rules out, using
+ * precomputed distances between the nodes. The results are exact and the same
+ * as those of a linear scan.
+ *
+ * If the distance d(q, r) of the query q to some node r is known, every node n
+ * is at least |d(r, n) - d(q, r)| away from q. Two kinds of reference nodes r are used:
+ * <ul>
+ * <li>pivots (LAESA): a few nodes far apart from each other, whose distances to all
+ *     nodes are stored. Every query computes its distances to the pivots first.</li>
+ * <li>the best node found so far (Elkan): for small maps the distances between all
+ *     pairs of nodes are stored, so the bound follows the search.</li>
+ * </ul>
+ * A node is skipped if its bound exceeds the distance it would have to beat.
+ */
+public class TriangleBMUEngine extends BMUEngine {
+
+    /**
+     * Largest number of nodes the distances between all pairs are stored for
+     */
+    public static final int PAIRWISE_MAX_NODES = 2048;
+
+    /**
+     * Number of pivots if there is no pairwise table
+     */
+    private static final int PIVOTS = 16;
+
+    /**
+     * Number of pivots next to a pairwise table, they only provide a good first candidate
+     */
+    private static final int PAIRWISE_PIVOTS = 4;
+
+    /**
+     * The distances are stored as floats, bounds are lowered by this fraction of
+     * the distances involved to account for the rounding
+     */
+    private static final double FLOAT_ERROR = 1e-6;
+
+    /**
+     * Engine the distances are computed with
+     */
+    private final BMUEngine kernel;
+    private final int nodes;
+
+    /**
+     * Indices of the pivots
+     */
+    private final int[] pivots;
+    private final boolean[] isPivot;
+
+    /**
+     * Distance of node n to pivot i at n * pivots.length + i
+     */
+    private final float[] pivotDistances;
+
+    /**
+     * Distance between nodes a and b at a * nodes + b, null for large maps
+     */
+    private final float[] pairwise;
+
+    private final AtomicLong candidates = new AtomicLong();
+    private final AtomicLong evaluated = new AtomicLong();
+
+    /**
+     * Computes the distance tables, the pairwise one if the map has at most PAIRWISE_MAX_NODES nodes
+     * @param codebook the codebook the distances are computed for
+     * @param x_dim number of nodes in x direction of the SOM
+     */
+    public TriangleBMUEngine(Codebook codebook, int x_dim)
+    {
+        this(codebook, x_dim, codebook.getNodeCount() <= PAIRWISE_MAX_NODES);
+    }
+
+    /**
+     * Computes the distance tables
+     * @param codebook the codebook the distances are computed for
+     * @param x_dim number of nodes in x direction of the SOM
+     * @param storePairwise whether to store the distances between all pairs of nodes,
+     *        which takes 4 * nodes^2 bytes
+     */
+    public TriangleBMUEngine(Codebook codebook, int x_dim, boolean storePairwise)
+    {
+        super(codebook, x_dim);
+        this.kernel = LaneBMUEngine.supports(codebook)
+                ? new LaneBMUEngine(codebook, x_dim) : new ScalarBMUEngine(codebook, x_dim);
+        this.nodes = codebook.getNodeCount();
+        if (storePairwise && (long) nodes * nodes > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("The map is too large to store the distances between all nodes.");
+
+        pivots = new int[Math.min(nodes, storePairwise ? PAIRWISE_PIVOTS : PIVOTS)];
+        isPivot = new boolean[nodes];
+        pivotDistances = new float[nodes * pivots.length];
+        choosePivots();
+        pairwise = storePairwise ? computePairwise() : null;
+    }
+
+    @Override
+    public int getType() {
+        return TRIANGLE;
+    }
+
+    /**
+     * @return true if the distances between all pairs of nodes are stored
+     */
+    public boolean isPairwise() {
+        return pairwise != null;
+    }
+
+    /**
+     * @return fraction of the node distances the searches so far could skip
+     */
+    public double getPruningRatio() {
+        long total = candidates.get();
+        return total == 0 ? 0 : 1 - (double) evaluated.get() / total;
+    }
+
+    @Override
+    protected double distanceSquared(int node, double[] vector, double bound) {
+        return kernel.distanceSquared(node, vector, bound);
+    }
+
+    @Override
+    public double distanceSquared(int a, int b) {
+        return kernel.distanceSquared(a, b);
+    }
+
+    @Override
+    public BestMatchingUnit findBMU(double[] vector)
+    {
+        return search(vector, 1).toArray()[0];
+    }
+
+    @Override
+    public void findTwoBMUs(double[] vector, int index, BMUProjection projection)
+    {
+        if (nodes < 2)
+        {
+            kernel.findTwoBMUs(vector, index, projection);
+            return;
+        }
+        BestMatchingUnit[] two = search(vector, 2).toArray();
+        projection.set(index, two[0].getNode(), two[0].getDistance(), two[1].getNode(), two[1].getDistance());
+    }
+
+    @Override
+    public BestMatchingUnit[] findNearest(double[] vector, int k)
+    {
+        return search(vector, Math.min(k, nodes)).toArray();
+    }
+
+    /**
+     * Collects the k nodes nearest to a vector, skipping the nodes that can not be among them
+     */
+    private NearestNodes search(double[] vector, int k)
+    {
+        int m = pivots.length;
+        NearestNodes nearest = new NearestNodes(k, x_dim);
+
+        // the pivots are evaluated first, the nearest one is a good first candidate
+        double[] toPivot = new double[m];
+        int best = -1;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < m; i++)
+        {
+            double dist = kernel.distanceSquared(pivots[i], vector, Double.POSITIVE_INFINITY);
+            toPivot[i] = Math.sqrt(dist);
+            nearest.offer(pivots[i], dist);
+            if (dist < bestDistance)
+            {
+                bestDistance = dist;
+                best = pivots[i];
+            }
+        }
+        double toBest = Math.sqrt(bestDistance);
+
+        int count = m;
+        double limitBound = -1;
+        double limit = 0;
+        for (int node = 0; node < nodes; node++)
+        {
+            if (isPivot[node])
+                continue;
+            double bound = nearest.bound();
+            if (bound != Double.POSITIVE_INFINITY)
+            {
+                if (bound != limitBound)
+                {
+                    limitBound = bound;
+                    limit = Math.sqrt(bound);
+                }
+                if (pairwise != null)
+                {
+                    double between = pairwise[best * nodes + node];
+                    if (between - toBest - FLOAT_ERROR * (between + toBest) > limit)
+                        continue;
+                }
+                if (pruned(node * m, toPivot, limit))
+                    continue;
+            }
+            double dist = kernel.distanceSquared(node, vector, bound);
+            count++;
+            nearest.offer(node, dist);
+            if (dist < bestDistance)
+            {
+                bestDistance = dist;
+                best = node;
+                toBest = Math.sqrt(dist);
+            }
+        }
+        candidates.addAndGet(nodes);
+        evaluated.addAndGet(count);
+        return nearest;
+    }
+
+    /**
+     * @param offset offset of the pivot distances of the node
+     * @param toPivot distances of the query to the pivots
+     * @param limit distance the node has to be at most to be of interest
+     * @return true if some pivot proves that the node is farther than limit
+     */
+    private boolean pruned(int offset, double[] toPivot, double limit)
+    {
+        for (int i = 0; i < toPivot.length; i++)
+        {
+            double stored = pivotDistances[offset + i];
+            if (Math.abs(stored - toPivot[i]) - FLOAT_ERROR * (stored + toPivot[i]) > limit)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Chooses pivots far apart from each other (farthest first traversal)
+     * and stores their distances to all nodes
+     */
+    private void choosePivots()
+    {
+        int m = pivots.length;
+        double[] minDistance = new double[nodes];
+        java.util.Arrays.fill(minDistance, Double.POSITIVE_INFINITY);
+        // the first pivot is the node farthest from node 0
+        int next = farthest(0);
+        for (int i = 0; i < m; i++)
+        {
+            int pivot = next;
+            pivots[i] = pivot;
+            isPivot[pivot] = true;
+            double[] vector = codebook.getVector(pivot);
+            double farthestDistance = -1;
+            for (int node = 0; node < nodes; node++)
+            {
+                double distance = Math.sqrt(kernel.distanceSquared(node, vector, Double.POSITIVE_INFINITY));
+                pivotDistances[node * m + i] = (float) distance;
+                if (distance < minDistance[node])
+                    minDistance[node] = distance;
+                if (!isPivot[node] && minDistance[node] > farthestDistance)
+                {
+                    farthestDistance = minDistance[node];
+                    next = node;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the node farthest from a node
+     */
+    private int farthest(int from)
+    {
+        double[] vector = codebook.getVector(from);
+        int result = from;
+        double max = -1;
+        for (int node = 0; node < nodes; node++)
+        {
+            double dist = kernel.distanceSquared(node, vector, Double.POSITIVE_INFINITY);
+            if (dist > max)
+            {
+                max = dist;
+                result = node;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the distances between all pairs of nodes, computed on all cores
+     */
+    private float[] computePairwise()
+    {
+        final float[] table = new float[nodes * nodes];
+        ParallelTasks.forRange(nodes, 16, new ParallelTasks.RangeTask<RuntimeException>() {
+            public void run(int from, int to) {
+                for (int a = from; a < to; a++)
+                {
+                    double[] vector = codebook.getVector(a);
+                    for (int b = 0; b < nodes; b++)
+                        table[a * nodes + b] = (float) Math.sqrt(kernel.distanceSquared(b, vector, Double.POSITIVE_INFINITY));
+                }
+            }
+        });
+        return table;
+    }
+}
@@ -4,6 +4,7 @@ import java.awt.*;
 import java.awt.geom.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
 import java.awt.image.WritableRaster;
 import java.util.LinkedList;
 import java.util.List;
@@ -21,6 +22,27 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
 
     public static final int GREYSCALE_COLOR_MODEL = 0;
     public static final int COLORED_COLOR_MODEL = 1;
+
+    public static final int OVERLAY_NONE = 0;
+    public static final int OVERLAY_QUANTIZATION_ERROR = 1;
+    public static final int OVERLAY_TOPOGRAPHIC_ERROR = 2;
+
+    public static final int NO_COMPONENT_PLANE = -1;
+
+    public static final int MATRIX_U = 0;
+    public static final int MATRIX_P = 1;
+    public static final int MATRIX_USTAR = 2;
+
+    public static final int SCALING_LINEAR = 0;
+    public static final int SCALING_EQUALIZED = 1;
+    public static final int SCALING_CLIPPED = 2;
+
+    /**
+     * Quantiles of the distances that are the darkest and brightest colors
+     * of the SCALING_CLIPPED scaling, the distances outside are clipped
+     */
+    public static final double CLIP_LOW_QUANTILE = 0.02;
+    public static final double CLIP_HIGH_QUANTILE = 0.98;
     
     
     /**
@@ -56,9 +78,40 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
     private int colorModel;
 
     /**
-     * a two-dimensional array which contains all hexagons in the umatrix
+     * Quality measures of the som that can be shown on top of the nodes
+     */
+    private MapQuality mapQuality;
+
+    /**
+     * Which per node error of mapQuality is shown, one of the OVERLAY_* constants
+     */
+    private int qualityOverlay = OVERLAY_NONE;
+
+    /**
+     * Component whose plane is shown instead of the distances,
+     * NO_COMPONENT_PLANE for the umatrix
+     */
+    private int componentPlane = NO_COMPONENT_PLANE;
+
+    /**
+     * Densities of a data set at the nodes, for the P-matrix and the U*-matrix
+     */
+    private NodeDensities nodeDensities;
+
+    /**
+     * Which matrix is shown, one of the MATRIX_* constants
+     */
+    private int densityMatrix = MATRIX_U;
+
+    /**
+     * How the distances are mapped to colors, one of the SCALING_* constants
+     */
+    private int colorScaling = SCALING_LINEAR;
+
+    /**
+     * the hexagons of the umatrix: centers, neighbors and values of all cells
      */ 
-    private Hexagon[][] hexagons;
+    private HexGrid grid;
 
     /**
      *  the hexagon factory for this umatrix
@@ -163,7 +216,7 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
         //Initalize the GUI components
         initComponents();
         //Initialize the hexagon factory with some default hexagon size
-        hexFactory = new HexagonFactory(quality);
+        hexFactory = HexagonFactory.forSize(quality);
     }
    
     /**
@@ -219,195 +272,55 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
             return;
         }
 
-        hexagons = new Hexagon[som.getY() * 2 - 1][som.getX() * 2 - 1];
-        
-        //For every hexagon in the map
-        for (int x = 0; x < som.getX() * 2 - 1; x++) {
-            for (int y = 0; y < som.getY() * 2 - 1; y++) {
-                //Create the hexagon using the factory
-                GeneralPath path = hexFactory.computeHexagonPositions(x, y);
-               
-                //Distinguish between node and distance hexagons
-                if (som.getDistances()[y][x] == 0) {
-                    // hexagon is a SOM node
-                    hexagons[y][x] = new NodeHexagon(path, som);
-                    
-                    // for possible implementation of a feature that shows vector values in a status bar
-                    ((NodeHexagon)hexagons[y][x]).setVector(som.getMap()[(y / 2)][(x / 2)]);
-                    if (interpolateDistanceNodes || contourlinesActive) {
-                        hexagons[y][x].setDistance(interpolateDistance(y, x));
-                    } else {
-                        hexagons[y][x].setDistance(0);
-                    }
-                    
-                }
-                else {
-                    // hexagon is distance hexagon
-                    hexagons[y][x] = new DistanceHexagon(path, som);
-                    hexagons[y][x].setDistance(som.getDistances()[y][x]);
-                }
-                
-            }
-        }
-        //For each hexagon: remember its neighbors -> important for interpolation
-        setNeighbors();
+        //The grid computes the centers and neighbors of all hexagons
+        grid = new HexGrid(som.getX(), som.getY(), hexFactory);
+        setGridDistances();
     }
-    
+
     /**
-     * This will set the neighbors for each hexagon
+     * Takes over the distances of the som into the grid: the distance between
+     * the nodes next to a distance hexagon, the mean distance to the neighbors
+     * for node hexagons if they are interpolated, otherwise 0 (white)
      */
-    private void setNeighbors()
-    {
-        for(int x=0;x<som.getX()*2-1;x++)
-        {
-            for(int y=0;y<som.getY()*2-1;y++)
-            {
-                //NOTE: Some of the following branches
-                //could be merged
-                //Since this function is only called when
-                //the umatrix is recreated completely,
-                //we let those branches seperate 
-                //for code clarity
-                
-                //Every one of the following branches represents one neighbor
-                
-                Hexagon currHex =  hexagons[y][x];
-                //Left, upper neighbor
-                Hexagon luN = null;
-                if(y-1 >= 0)
-                {
-                    if(hexagons[y-1][x].getCenter().getX() < currHex.getCenter().getX())
-                    {
-                        luN = hexagons[y-1][x];
-                    }else if(x-1 >= 0)
-                    {
-                        luN = hexagons[y-1][x-1];
-                    }
-                }
-                currHex.addNeighbor(luN);
-                
-                //Left, lower neighbor
-                Hexagon llN = null;
-                if(y+1 < hexagons.length)
-                {
-                    if(hexagons[y+1][x].getCenter().getX() < currHex.getCenter().getX())
-                    {
-                        llN = hexagons[y+1][x];
-                    }else if(x-1 >= 0)
-                    {
-                        llN = hexagons[y+1][x-1];
-                    }
-                }
-                currHex.addNeighbor(llN);
-                
-                //Right, upper neighbor
-                Hexagon ruN = null;
-                if(y-1 >= 0)
-                {
-                    if(hexagons[y-1][x].getCenter().getX() > currHex.getCenter().getX())
-                    {
-                        ruN = hexagons[y-1][x];
-                    }else if(x+1 < hexagons[0].length)
-                    {
-                        ruN = hexagons[y-1][x+1];
-                    }
-                }
-                currHex.addNeighbor(ruN);
-                
-                //Right, lower neighbor
-                Hexagon rlN = null;
-                if(y+1 < hexagons.length)
-                {
-                    if(hexagons[y+1][x].getCenter().getX() > currHex.getCenter().getX())
-                    {
-                        rlN = hexagons[y+1][x];
-                    }else if(x+1 < hexagons[0].length)
-                    {
-                        rlN = hexagons[y+1][x+1];
-                    }
-                }
-                currHex.addNeighbor(rlN);
-                
-                //Left neighbor
-                Hexagon lN = null;
-                if(x-1 >= 0)
-                {
-                    lN = hexagons[y][x-1];
-                }
-                currHex.addNeighbor(lN);
-                
-                //Right neighbor
-                Hexagon rN = null;
-                if(x+1 < hexagons[0].length)
-                {
-                    rN = hexagons[y][x+1];
+    private void setGridDistances() {
+        NeighborDistances distances = som.getNeighborDistances();
+        double[] buffer = new double[6];
+        for (int y = 0; y < grid.getRows(); y++) {
+            for (int x = 0; x < grid.getColumns(); x++) {
+                int cell = grid.getCell(y, x);
+                if (!NeighborDistances.isNodeCell(y, x)) {
+                    grid.setDistance(cell, distances.getCell(y, x));
+                } else if (interpolateDistanceNodes || contourlinesActive) {
+                    grid.setDistance(cell, distances.getMean(grid.getNode(cell), buffer));
+                } else {
+                    grid.setDistance(cell, 0);
                 }
-                currHex.addNeighbor(rN);
             }
         }
     }
 
     /**
-     * This method finds the hexagon, which contains a point on the panel.
-     * It was intended, to allow for clicks on the uMatrix which would 
-     * return the vector values of the clicked hexagon.
-     * @param click The point.
-     * @return the hexagon.
+     * This method finds the hexagon, which contains a point on the panel,
+     * e.g. for clicks or hover tooltips on the uMatrix which would 
+     * return the vector values of the hexagon.
+     * The point is scaled back by the zoom to the coordinates the umatrix
+     * is rendered in, then the grid computes the cell in constant time.
+     * @param point The point in panel coordinates.
+     * @return the cell of the hexagon in @see getGrid , HexGrid.NO_CELL if there is none
      */
-    private Hexagon findHexagonContainingPoint(Point click) {
-
-        // use the y coordinate to find the containing row of hexagons
-        Hexagon lowermostHex = hexagons[hexagons.length - 1][0];
-        double farYCoords = lowermostHex.getCenter().getY();
-        int approxHexRow = (int)(click.y / farYCoords);
-        double yError = hexagons[approxHexRow][0].getCenter().getY() - click.getY();
-
-        // correct while distance is greater than half the hexagon size
-        while (Math.abs(yError) > quality) {
-            if (yError > 0) {
-                approxHexRow--;
-            } else {
-                approxHexRow++;
-            }
-            yError = hexagons[approxHexRow][0].getCenter().getY() - click.getY();
+    public int findCellContainingPoint(Point point) {
+        if (grid == null) {
+            return HexGrid.NO_CELL;
         }
+        return grid.findCell(point.getX() / normedZoomScale, point.getY() / normedZoomScale);
+    }
 
-        // use the x coordinate to find the exact hexagon
-        Hexagon rightmostHex = hexagons[approxHexRow][hexagons[0].length - 1];
-        double farXCoords = rightmostHex.getCenter().getX();
-        int approxHexColumn = (int) (click.x / farXCoords);
-
-        double xdist = hexagons[approxHexRow][approxHexColumn].getCenter().getX() - click.getX();
-
-        // correct while distance is greater than half the hexagon size
-        while (Math.abs(xdist) > quality * Math.sqrt(3) / 2) {
-            if (xdist > 0) {
-                approxHexColumn--;
-            } else {
-                approxHexColumn++;
-            }
-            xdist = hexagons[approxHexRow][approxHexColumn].getCenter().getX() - click.getX();
-        }
-
-        // fine corrections
-
-        if (hexagons[approxHexRow][approxHexColumn].contains(click)) {
-            return hexagons[approxHexRow][approxHexColumn];
-        } else {
-            for (int x_off = -1; x_off <= 1; x_off++) {
-                for (int y_off = -1; y_off <= 1; y_off++) {
-                    if (approxHexRow + y_off > 0 && approxHexColumn + x_off > 0) {
-                        if (hexagons[approxHexRow + y_off][approxHexColumn + x_off].contains(click)) {
-                            return hexagons[approxHexRow + y_off][approxHexColumn + x_off];
-                        }
-                    }
-                }
-            }
-        }
-
-        return null;
-
-
+    /**
+     * Getter for the hexagons of the umatrix
+     * @return the grid, null if no som was loaded
+     */
+    public HexGrid getGrid() {
+        return grid;
     }
 
     /**
@@ -426,75 +339,6 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
         return colorModel;
     }
     
-    /**
-     * This method interpolates the distance value of a hexagon indexed with y and x.
-     *
-     * @param y
-     * @param x
-     * @return 
-     */
-    private double interpolateDistance(int y, int x) {
-
-        double sum = 0;
-        int count = 0;
-
-        if (x > 0) {
-            // left
-            sum += som.getDistances()[y][x - 1];
-            count++;
-        }
-        if (x < som.getX() - 1) {
-            // right
-            sum += som.getDistances()[y][x + 1];
-            count++;
-        }
-        // top
-        if (y > 0) {
-
-            if (y % 4 == 0) {
-                if (x > 0) {
-                    sum += som.getDistances()[y - 1][x - 1];
-                    count++;
-                }
-                sum += som.getDistances()[y - 1][x];
-                count++;
-            } else if (y % 4 == 2) {
-                if (x < som.getX() - 1) {
-                    sum += som.getDistances()[y - 1][x + 1];
-                    count++;
-                }
-                sum += som.getDistances()[y - 1][x];
-                count++;
-            }
-
-        }
-
-        // bottom
-        if (y < som.getY() - 1) {
-            if (y % 4 == 2) {
-                if (x > 0) {
-                    sum += som.getDistances()[y + 1][x - 1];
-                    count++;
-                }
-                sum += som.getDistances()[y + 1][x];
-                count++;
-            } else if (y % 4 == 0) {
-                if (x < som.getX() - 1) {
-                    sum += som.getDistances()[y + 1][x + 1];
-                    count++;
-                }
-                sum += som.getDistances()[y + 1][x];
-                count++;
-            }
-        }
-
-        if (count > 0) {
-            return sum / count;
-        } else {
-            return 0;
-        }
-    }
-    
     /**
      * Getter for the trajectories.
      * @return 
@@ -570,55 +414,84 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
         
         g.setBackground(new Color(0.f,0.f,0.f,0.f));
         g.clearRect(0, 0, bufferUMatrix.getWidth(), bufferUMatrix.getHeight());
+        ComponentPlanes planes = componentPlane == NO_COMPONENT_PLANE ? null : som.getComponentPlanes();
+        double[][] densityBrightness = planes == null && nodeDensities != null && densityMatrix != MATRIX_U
+                ? computeDensityBrightness() : null;
+        // the range of distances the colors are spread over
+        double low = 0;
+        double high = som.getMaxDistance();
+        if (colorScaling == SCALING_CLIPPED) {
+            low = som.getDistanceQuantiles().getQuantile(CLIP_LOW_QUANTILE);
+            high = som.getDistanceQuantiles().getQuantile(CLIP_HIGH_QUANTILE);
+        }
+        // the contour lines interpolate between the (colored) colors of the neighbors
+        int[] interpolationColors = null;
+        if (contourlinesActive && planes == null && densityBrightness == null) {
+            interpolationColors = new int[grid.getCellCount()];
+            for (int cell = 0; cell < interpolationColors.length; cell++) {
+                interpolationColors[cell] = brightnessColor(COLORED_COLOR_MODEL,
+                        distanceBrightness(grid.getDistance(cell), low, high)).getRGB();
+            }
+        }
+        // every hexagon is the template of the factory, moved to its center;
+        // the ones with one color are written straight to the pixels of the buffer
+        Shape hexagon = hexFactory.getTemplate();
+        HexagonRasterizer rasterizer = hexFactory.getRasterizer();
+        int[] pixels = ((DataBufferInt) bufferUMatrix.getRaster().getDataBuffer()).getData();
+        int width = bufferUMatrix.getWidth();
+        int height = bufferUMatrix.getHeight();
         // perform for every hexagon
-        for (int x = 0; x < som.getX() * 2 - 1; x++) {
-            for (int y = 0; y < som.getY() * 2 - 1; y++) {
-                Hexagon hexagon = hexagons[y][x];
+        for (int x = 0; x < grid.getColumns(); x++) {
+            for (int y = 0; y < grid.getRows(); y++) {
+                int cell = grid.getCell(y, x);
+                boolean nodeCell = NeighborDistances.isNodeCell(y, x);
+                double centerX = grid.getCenterX(cell);
+                double centerY = grid.getCenterY(cell);
 
-                if (hexagon.getDistance() == 0) {
+                if (planes != null) {
+                    // the level of the component instead of the distance
+                    rasterizer.fill(pixels, width, height, centerX, centerY,
+                            brightnessColor(colorModel, planeLevel(planes, y, x) / ComponentPlanes.LEVELS).getRGB());
+                } else if (densityBrightness != null) {
+                    // P-matrix or U*-matrix, NaN leaves a node white like in the umatrix
+                    double brightness = densityBrightness[y][x];
+                    Color color = Double.isNaN(brightness) ? Color.white : brightnessColor(colorModel, brightness);
+                    rasterizer.fill(pixels, width, height, centerX, centerY, color.getRGB());
+                } else if (nodeCell && grid.getDistance(cell) == 0) {
                     // if there is no distance value, fill hexagon with white
-                    g.setColor(Color.white);
+                    rasterizer.fill(pixels, width, height, centerX, centerY, Color.white.getRGB());
+                } else if (contourlinesActive) {
+                    //Draw contourlines
+                    g.setPaint(new HexagonInterpolationPaint(grid, interpolationColors, cell,
+                            0,
+                            this.getQuality()*1.75,
+                            this.contourLineDists, this.cLineThickness));
+                    g.translate(centerX, centerY);
                     g.fill(hexagon);
+                    g.translate(-centerX, -centerY);
                 } else {
-                    
                     // if there is a distance value, fill accordingly
-                    double brightness = hexagon.getDistance() / som.getMaxDistance();
-                    switch(colorModel)
-                    {
-                        case UMatrix.GREYSCALE_COLOR_MODEL: g.setColor(Color.getHSBColor(1.f, 0.f, 1.f - (float) brightness));
-                            break;
-                        case UMatrix.COLORED_COLOR_MODEL: g.setColor(Color.getHSBColor((1.f - (float) brightness) * 0.708f, 1.f, 1.f));
-                            break;
-                        default: g.setColor(Color.RED);
-                            break;
-                    }
-                    //Draw contourlines
-                    if(contourlinesActive)
-                    {
-                        g.setPaint(new HexagonInterpolationPaint(hexagon.getNeighborPoints(),
-                                new HexagonInterpolationPaintContext.PointAndColor(hexagon.getCenter(), 
-                                        som.getHexagonColor(hexagon), hexagon.getDistance()),
-                                0,
-                                this.getQuality()*1.75,
-                                this.contourLineDists, this.cLineThickness));
-                    }
-                    g.fill(hexagon);
+                    double brightness = distanceBrightness(grid.getDistance(cell), low, high);
+                    rasterizer.fill(pixels, width, height, centerX, centerY,
+                            brightnessColor(colorModel, brightness).getRGB());
                 }
-                if (displayDots && hexagon instanceof NodeHexagon) {
+                if (displayDots && nodeCell) {
                     
                     // display black dots if this is a nodehexagon and displaydots is turned on
-                    Point2D center = hexagon.getCenter();
                     g.setColor(Color.black);
                     g.setPaint(Color.black);
                     float dotRadius = (float)this.quality / 2.5f;
                     Ellipse2D.Double centerDot = new Ellipse2D.Double(
-                            center.getX() - (int)(dotRadius/2.f),
-                            center.getY() - (int)(dotRadius/2.f),
+                            centerX - (int)(dotRadius/2.f),
+                            centerY - (int)(dotRadius/2.f),
                             (int) dotRadius, (int) dotRadius);
                     g.fill(centerDot);
                 }
             }
         }
+        if (mapQuality != null && qualityOverlay != OVERLAY_NONE) {
+            paintQualityOverlay(g);
+        }
         //Since something with the uMatrix might have changed
         //we have to redraw the buffer that contains the final combination
         //of all the buffers
@@ -628,6 +501,132 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
                 "Rendering of the umatrix done", false));
     }
 
+
+    /**
+     * Color of a value in the umatrix
+     * @param colorModel GREYSCALE_COLOR_MODEL or COLORED_COLOR_MODEL
+     * @param brightness the value relative to the largest one, in [0,1]
+     * @return the color
+     */
+    static Color brightnessColor(int colorModel, double brightness)
+    {
+        switch(colorModel)
+        {
+            case UMatrix.GREYSCALE_COLOR_MODEL: return Color.getHSBColor(1.f, 0.f, 1.f - (float) brightness);
+            case UMatrix.COLORED_COLOR_MODEL: return Color.getHSBColor((1.f - (float) brightness) * 0.708f, 1.f, 1.f);
+            default: return Color.RED;
+        }
+    }
+
+    /**
+     * Brightness of a distance according to the color scaling
+     * @param distance the distance
+     * @param low distance that is the darkest color of the linear scalings
+     * @param high distance that is the brightest color of the linear scalings
+     * @return the brightness in [0,1]
+     */
+    private double distanceBrightness(double distance, double low, double high)
+    {
+        if (colorScaling == SCALING_EQUALIZED) {
+            return som.getDistanceQuantiles().getRank(distance);
+        }
+        if (high <= low) {
+            return distance > low ? 1 : 0;
+        }
+        return Math.max(0, Math.min(1, (distance - low) / (high - low)));
+    }
+
+    /**
+     * Level of a hexagon in a component plane: the level of the node for node
+     * hexagons, the mean level of the two nodes next to it for distance hexagons
+     */
+    private double planeLevel(ComponentPlanes planes, int y, int x)
+    {
+        NeighborDistances distances = som.getNeighborDistances();
+        int node = distances.getCellNode(y, x);
+        int edge = NeighborDistances.getCellEdge(y, x);
+        if (edge < 0) {
+            return planes.getLevel(componentPlane, node);
+        }
+        int neighbor = distances.getNeighbor(node, edge);
+        return (planes.getLevel(componentPlane, node) + planes.getLevel(componentPlane, neighbor)) / 2.0;
+    }
+
+    /**
+     * Brightness of every hexagon in the P-matrix or the U*-matrix.
+     * The P-matrix shows the density of the nodes, dense regions bright like short
+     * distances in the umatrix. The U*-matrix shows the distances of the umatrix,
+     * scaled with the density (@see NodeDensities#getUStarScale ).
+     * Distance hexagons take the mean density of their two nodes.
+     * @return brightness per hexagon in [0,1], NaN for nodes that stay white
+     */
+    private double[][] computeDensityBrightness()
+    {
+        NeighborDistances distances = som.getNeighborDistances();
+        double[] buffer = new double[6];
+        double[][] values = new double[som.getY() * 2 - 1][som.getX() * 2 - 1];
+        double max = 0;
+        for (int y = 0; y < values.length; y++) {
+            for (int x = 0; x < values[y].length; x++) {
+                int node = distances.getCellNode(y, x);
+                int edge = NeighborDistances.getCellEdge(y, x);
+                double density = edge < 0 ? nodeDensities.getDensity(node)
+                        : (nodeDensities.getDensity(node)
+                        + nodeDensities.getDensity(distances.getNeighbor(node, edge))) / 2.0;
+                if (densityMatrix == MATRIX_P) {
+                    values[y][x] = density;
+                } else if (edge >= 0) {
+                    values[y][x] = distances.get(node, edge) * nodeDensities.getUStarScale(density);
+                } else if (interpolateDistanceNodes || contourlinesActive) {
+                    values[y][x] = distances.getMean(node, buffer) * nodeDensities.getUStarScale(density);
+                } else {
+                    values[y][x] = Double.NaN;
+                }
+                if (values[y][x] > max) {
+                    max = values[y][x];
+                }
+            }
+        }
+        for (int y = 0; y < values.length; y++) {
+            for (int x = 0; x < values[y].length; x++) {
+                double relative = max == 0 ? 0 : values[y][x] / max;
+                values[y][x] = densityMatrix == MATRIX_P ? 1 - relative : relative;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Shades every node in red according to its error in mapQuality,
+     * the node with the largest error is shaded the most
+     */
+    private void paintQualityOverlay(Graphics2D g)
+    {
+        double[][] errors = qualityOverlay == OVERLAY_TOPOGRAPHIC_ERROR
+                ? mapQuality.getNodeTopographicErrors()
+                : mapQuality.getNodeQuantizationErrors();
+        double max = 0;
+        for (int y = 0; y < errors.length; y++) {
+            for (int x = 0; x < errors[y].length; x++) {
+                max = Math.max(max, errors[y][x]);
+            }
+        }
+        if (max == 0) {
+            return;
+        }
+        Shape hexagon = hexFactory.getTemplate();
+        for (int y = 0; y < som.getY(); y++) {
+            for (int x = 0; x < som.getX(); x++) {
+                if (errors[y][x] > 0) {
+                    g.setPaint(new Color(1.f, 0.f, 0.f, (float) (0.75 * errors[y][x] / max)));
+                    int cell = grid.getNodeCell(x, y);
+                    g.translate(grid.getCenterX(cell), grid.getCenterY(cell));
+                    g.fill(hexagon);
+                    g.translate(-grid.getCenterX(cell), -grid.getCenterY(cell));
+                }
+            }
+        }
+    }
     
      /**
      * Refreshes the buffer where the static trajectories are stored in
@@ -685,8 +684,8 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
                         
                     int[][] bestMatchingUnits = trajectory.getBmus();
 
-                    Hexagon current = null;
-                    Hexagon last = null;
+                    int current = HexGrid.NO_CELL;
+                    int last = HexGrid.NO_CELL;
                     
                     // if the trajectory is displayed in sync with the motion
                     // stop at the current time step, else iterate over the
@@ -715,7 +714,7 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
                         int y = bestMatchingUnits[i][1];
 
                         last = current;
-                        current = hexagons[y*2][x*2];
+                        current = grid.getNodeCell(x, y);
 
                         double size = (double)hitCounts[y][x];
                         //Scale it with quality to make it independent of quality
@@ -724,13 +723,13 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
                         // draw circle (size according to how often it was hit)
                         g.setStroke(circleStroke);
                         Ellipse2D.Double hitCountCircle =
-                                new Ellipse2D.Double(current.getCenter().getX() - size + offset,
-                                        current.getCenter().getY() - size + offset, 2 * size + 1, 2 * size + 1);
+                                new Ellipse2D.Double(grid.getCenterX(current) - size + offset,
+                                        grid.getCenterY(current) - size + offset, 2 * size + 1, 2 * size + 1);
                         g.draw(hitCountCircle);
 
                         //In case this is not the start of the trajectory
                         //connect the previous point with this one via a line
-                        if(last!=null && last!=current)
+                        if(last!=HexGrid.NO_CELL && last!=current)
                             {
                             BasicStroke drawStroke = new BasicStroke(
                                     strokeWidth,
@@ -739,10 +738,10 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
                                     trajStroke.getDashArray(),trajStroke.getDashPhase());
                             g.setStroke(drawStroke);
                             Line2D.Double trajLine =
-                                    new Line2D.Double(last.getCenter().getX() + offset,
-                                        last.getCenter().getY() + offset,
-                                        current.getCenter().getX() + offset,
-                                        current.getCenter().getY() + offset);
+                                    new Line2D.Double(grid.getCenterX(last) + offset,
+                                        grid.getCenterY(last) + offset,
+                                        grid.getCenterX(current) + offset,
+                                        grid.getCenterY(current) + offset);
                             g.draw(trajLine);
                         }
 
@@ -871,6 +870,120 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
         
     }
 
+    /**
+     * Switch between the mappings of the distances to colors: linear up to
+     * the largest distance, histogram equalized (by the rank of a distance
+     * among all distances) or linear between two quantiles
+     * (CLIP_LOW_QUANTILE and CLIP_HIGH_QUANTILE), so single outliers do
+     * not wash out the umatrix
+     * @param colorScaling one of the SCALING_* constants
+     */
+    public void setColorScaling(int colorScaling)
+    {
+        if (colorScaling != SCALING_LINEAR && colorScaling != SCALING_EQUALIZED
+                && colorScaling != SCALING_CLIPPED) {
+            throw new IllegalArgumentException("Unknown color scaling " + colorScaling);
+        }
+        this.colorScaling = colorScaling;
+        refreshUMatrixImageBuffer();
+        this.invalidate();
+        this.repaint();
+    }
+
+    /**
+     * @return how the distances are mapped to colors, one of the SCALING_* constants
+     */
+    public int getColorScaling() {
+        return colorScaling;
+    }
+
+    /**
+     * Shows per node errors of the som on top of the umatrix
+     * @param quality the quality measures, e.g. from @see SOMMap#computeQuality ,
+     *        null to remove the overlay
+     * @param overlay which error is shown, one of the OVERLAY_* constants
+     */
+    public void setQualityOverlay(MapQuality quality, int overlay)
+    {
+        this.mapQuality = quality;
+        this.qualityOverlay = overlay;
+        refreshUMatrixImageBuffer();
+        this.repaint();
+    }
+
+    /**
+     * Shows the plane of a component instead of the distances between the nodes
+     * (@see SOMMap#getComponentPlanes() )
+     * @param component index of the component, NO_COMPONENT_PLANE for the umatrix
+     */
+    public void setComponentPlane(int component)
+    {
+        if (som == null || component < NO_COMPONENT_PLANE || component >= som.getDim()) {
+            throw new IllegalArgumentException("There is no component " + component + ".");
+        }
+        if (component == componentPlane) {
+            return;
+        }
+        this.componentPlane = component;
+        refreshUMatrixImageBuffer();
+        this.repaint();
+    }
+
+    /**
+     * Getter for the component whose plane is shown
+     * @return index of the component, NO_COMPONENT_PLANE if the umatrix is shown
+     */
+    public int getComponentPlane() {
+        return componentPlane;
+    }
+
+    /**
+     * Shows the P-matrix or the U*-matrix of a data set instead of the umatrix,
+     * the plane of a component is still shown instead of either of them
+     * @param densities the densities of the data set at the nodes, e.g. from
+     *        @see SOMMap#computeDensities , null to show the umatrix
+     * @param matrix which matrix is shown, one of the MATRIX_* constants
+     */
+    public void setDensityMatrix(NodeDensities densities, int matrix)
+    {
+        this.nodeDensities = densities;
+        this.densityMatrix = matrix;
+        refreshUMatrixImageBuffer();
+        this.repaint();
+    }
+
+    /**
+     * Getter for the densities the P-matrix and the U*-matrix are shown for
+     * @return the densities, null if there are none
+     */
+    public NodeDensities getNodeDensities() {
+        return nodeDensities;
+    }
+
+    /**
+     * Getter for the matrix that is shown
+     * @return one of the MATRIX_* constants
+     */
+    public int getDensityMatrix() {
+        return densityMatrix;
+    }
+
+    /**
+     * Getter for the quality measures shown on top of the umatrix
+     * @return the quality measures, null if there are none
+     */
+    public MapQuality getMapQuality() {
+        return mapQuality;
+    }
+
+    /**
+     * Getter for the error shown on top of the umatrix
+     * @return one of the OVERLAY_* constants
+     */
+    public int getQualityOverlay() {
+        return qualityOverlay;
+    }
+
     /**
      * Setter for displayDots
      * @param displayDots 
@@ -894,7 +1007,7 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
         }
         this.quality = quality;
         this.normedZoomScale = this.zoomScale/this.quality;
-        hexFactory = new HexagonFactory(this.quality);
+        hexFactory = HexagonFactory.forSize(this.quality);
         //Create  new buffers with correct size
         bufferUMatrix = new BufferedImage((int)getBufferDimensions().getWidth(),
                 (int)getBufferDimensions().getHeight(),
@@ -906,8 +1019,10 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
         bufferTrajectories.createGraphics();
         //Resize the combine image buffer is necessary
         adjustBufferCombinedSize();
-        //Recreate the hexagon map
-        createHexagonMap();
+        //The hexagon map stays, only the size of its hexagons changes
+        if (grid != null) {
+            grid.setFactory(hexFactory);
+        }
         
         //And render the new umatrix to the buffers
         refreshUMatrixImageBuffer();
@@ -927,8 +1042,12 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
      * @param map 
      */
     public void setMap(SOMMap map) {
-        //Assign map
+        //Assign map, the quality measures of the last one do not apply anymore
         som = map;
+        mapQuality = null;
+        componentPlane = NO_COMPONENT_PLANE;
+        nodeDensities = null;
+        densityMatrix = MATRIX_U;
         //Create the image buffer objects
         bufferUMatrix = new BufferedImage((int)getBufferDimensions().getWidth(),
                 (int)getBufferDimensions().getHeight(),
@@ -954,6 +1073,20 @@ public class UMatrix extends javax.swing.JPanel implements Observer, TableModelL
         notifyObservers();
     }
     
+    /**
+     * Takes over the distances of the som after some of its nodes changed
+     * (@see SOMMap#updateNodes ) and renders the umatrix again,
+     * without creating the hexagons again
+     */
+    public void refreshDistances() {
+        if (som == null) {
+            return;
+        }
+        setGridDistances();
+        refreshUMatrixImageBuffer();
+        this.repaint();
+    }
+
     /**
      * Getter for SOMMap
      * @return map
@@ -0,0 +1,55 @@
+package org.tum.opensim.somview;
+
+import java.io.File;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Writes SOMs to binary codebook files and reads them back
+ */
+public class BinaryCodebookFileTest {
+
+    private static SOMMap createMap()
+    {
+        double[][][] map = new double[2][3][];
+        for (int y = 0; y < 2; y++)
+        {
+            for (int x = 0; x < 3; x++)
+                map[y][x] = new double[] {x, y, x * y};
+        }
+        SOMMap som = new SOMMap(3, "hexa", 3, 2, "gaussian", map);
+        som.setCodebook(som.getCodebook());
+        return som;
+    }
+
+    private static SOMMap writeAndRead(SOMMap som) throws IOException
+    {
+        File file = File.createTempFile("som", BinaryCodebookFile.EXTENSION);
+        try {
+            BinaryCodebookFile.write(som, file, false);
+            return BinaryCodebookFile.read(file, Codebook.PRECISION_DOUBLE);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testComponentNames() throws IOException
+    {
+        SOMMap som = createMap();
+        som.setComponentNames(new String[] {"hip", "knee", "ankle \u00e4"});
+        SOMMap read = writeAndRead(som);
+        assertArrayEquals(som.getComponentNames(), read.getComponentNames());
+        assertArrayEquals(som.getCodebook().getVector(5), read.getCodebook().getVector(5), 0);
+    }
+
+    @Test
+    public void testWithoutComponentNames() throws IOException
+    {
+        SOMMap read = writeAndRead(createMap());
+        assertNull(read.getComponentNames());
+        assertEquals("hexa", read.getSom_type());
+        assertEquals("gaussian", read.getNeighborhood());
+    }
+}
@@ -0,0 +1,74 @@
+package org.tum.opensim.somview;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks that both .cod parsers take the component names from the same lines,
+ * and the parsing of values with many digits
+ */
+public class CodFileParserTest {
+
+    private static File createFile(String content) throws IOException
+    {
+        File file = File.createTempFile("parser", ".cod");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("US-ASCII"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static String[] readNames(String content) throws IOException
+    {
+        File file = createFile(content);
+        try {
+            String[] names = CodFileParser.read(file, Codebook.PRECISION_DOUBLE).getComponentNames();
+            String[] parallel = ParallelCodFileParser.read(file, Codebook.PRECISION_DOUBLE).getComponentNames();
+            if (names == null)
+                assertNull(parallel);
+            else
+                assertArrayEquals(names, parallel);
+            return names;
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testNamesInFrontOfTheVectors() throws IOException
+    {
+        String[] names = {"a", "b"};
+        assertArrayEquals(names, readNames("#n a b\n2 hexa 2 1 gaussian\n1 2\n3 4\n"));
+        assertArrayEquals(names, readNames("2 hexa 2 1 gaussian\n#n a b\n\n# other\n1 2\n3 4\n"));
+        assertArrayEquals(names, readNames("#n x y\r\n2 hexa 2 1 gaussian\r\n#n a b\r\n1 2\r\n3 4\r\n"));
+    }
+
+    @Test
+    public void testNamesAfterTheFirstVector() throws IOException
+    {
+        assertNull(readNames("2 hexa 2 1 gaussian\n1 2\n#n a b\n3 4\n"));
+        assertNull(readNames("2 hexa 2 1 gaussian\n1 2\n3 4\n#n a b"));
+    }
+
+    @Test
+    public void testManyDigits() throws IOException
+    {
+        // more significant digits than the mantissa holds, the dropped ones round up
+        String[] values = {"995569940073819968.94519877", "-2863704532815363.25773352967",
+            "-389910516699476123386664.8580035891356e-30"};
+        File file = createFile("1 hexa 3 1 gaussian\n" + values[0] + "\n" + values[1] + "\n" + values[2] + "\n");
+        try {
+            Codebook codebook = CodFileParser.read(file, Codebook.PRECISION_DOUBLE).getCodebook();
+            for (int i = 0; i < values.length; i++)
+                assertEquals(values[i], Double.parseDouble(values[i]), codebook.get(i, 0), 0);
+        } finally {
+            file.delete();
+        }
+    }
+}
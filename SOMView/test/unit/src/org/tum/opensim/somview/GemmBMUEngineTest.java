@@ -0,0 +1,92 @@
+package org.tum.opensim.somview;
+
+import java.util.Random;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Compares the batches of GemmBMUEngine with the node scan of ScalarBMUEngine
+ * for codebooks far away from the origin, where the expansion of the distance cancels
+ */
+public class GemmBMUEngineTest {
+
+    private static final int X_DIM = 25;
+    private static final int Y_DIM = 40;
+    private static final int DIM = 8;
+    private static final int VECTORS = 1000;
+
+    /**
+     * Creates a codebook with nodes on a grid with a small spacing around an offset
+     */
+    private static Codebook createCodebook(double offset, double spacing, Random random)
+    {
+        DoubleCodebook codebook = new DoubleCodebook(X_DIM * Y_DIM, DIM);
+        double[] vector = new double[DIM];
+        for (int n = 0; n < X_DIM * Y_DIM; n++)
+        {
+            for (int i = 0; i < DIM; i++)
+                vector[i] = offset + spacing * (random.nextInt(100) + random.nextDouble());
+            codebook.setVector(n, vector);
+        }
+        return codebook;
+    }
+
+    private static double[][] createVectors(double offset, double spacing, Random random)
+    {
+        double[][] vectors = new double[VECTORS][DIM];
+        for (double[] vector : vectors)
+        {
+            for (int i = 0; i < DIM; i++)
+                vector[i] = offset + spacing * 100 * random.nextDouble();
+        }
+        return vectors;
+    }
+
+    private static void assertSameBMUs(Codebook codebook, double[][] vectors)
+    {
+        BMUProjection expected = new BMUProjection(vectors.length, X_DIM);
+        BMUProjection actual = new BMUProjection(vectors.length, X_DIM);
+        new ScalarBMUEngine(codebook, X_DIM).project(vectors, expected);
+        new GemmBMUEngine(codebook, X_DIM).project(vectors, actual);
+        for (int i = 0; i < vectors.length; i++)
+        {
+            assertEquals("BMU of vector " + i, expected.getBMU(i), actual.getBMU(i));
+            assertEquals("second BMU of vector " + i, expected.getSecondBMU(i), actual.getSecondBMU(i));
+            assertEquals("quantization error of vector " + i,
+                    expected.getQuantizationError(i), actual.getQuantizationError(i), 0);
+        }
+    }
+
+    @Test
+    public void testNearOrigin()
+    {
+        Random random = new Random(1);
+        assertSameBMUs(createCodebook(0, 1e-3, random), createVectors(0, 1e-3, random));
+    }
+
+    @Test
+    public void testOffset()
+    {
+        Random random = new Random(2);
+        assertSameBMUs(createCodebook(1e5, 1e-3, random), createVectors(1e5, 1e-3, random));
+        assertSameBMUs(createCodebook(1e6, 1e-3, random), createVectors(1e6, 1e-3, random));
+    }
+
+    @Test
+    public void testOffsetFloatAndQuantized()
+    {
+        Random random = new Random(3);
+        Codebook codebook = createCodebook(1e4, 1e-2, random);
+        double[][] vectors = createVectors(1e4, 1e-2, random);
+        assertSameBMUs(new FloatCodebook(codebook), vectors);
+        assertSameBMUs(new ShortCodebook(codebook), vectors);
+        assertSameBMUs(new ByteCodebook(codebook), vectors);
+    }
+
+    @Test
+    public void testVectorsFarAway()
+    {
+        Random random = new Random(4);
+        assertSameBMUs(createCodebook(1e5, 1e-3, random), createVectors(2e5, 1e-3, random));
+    }
+}
@@ -0,0 +1,44 @@
+package org.tum.opensim.somview;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Checks which nodes the cells of the umatrix grid show the distance of,
+ * for a hexagonal 4x3 map whose odd rows are shifted half a node to the right
+ */
+public class NeighborDistancesTest {
+
+    /**
+     * Node pairs of the distance cells, by row and column of the 5x7 grid, null for node cells.
+     * Node n lies in row n / 4 and column n % 4.
+     */
+    private static final int[][][] PAIRS = {
+        {null, {0, 1}, null, {1, 2}, null, {2, 3}, null},
+        {{0, 4}, {1, 4}, {1, 5}, {2, 5}, {2, 6}, {3, 6}, {3, 7}},
+        {null, {4, 5}, null, {5, 6}, null, {6, 7}, null},
+        {{4, 8}, {4, 9}, {5, 9}, {5, 10}, {6, 10}, {6, 11}, {7, 11}},
+        {null, {8, 9}, null, {9, 10}, null, {10, 11}, null},
+    };
+
+    @Test
+    public void testCells()
+    {
+        // node n has the value 2^n, so every pair of nodes has another distance
+        double[][][] map = new double[3][4][];
+        for (int n = 0; n < 12; n++)
+            map[n / 4][n % 4] = new double[] {1 << n};
+        SOMMap som = new SOMMap(1, "hexa", 4, 3, "gaussian", map);
+        som.setCodebook(som.getCodebook());
+        NeighborDistances distances = som.getNeighborDistances();
+        for (int y = 0; y < PAIRS.length; y++)
+        {
+            for (int x = 0; x < PAIRS[y].length; x++)
+            {
+                int[] pair = PAIRS[y][x];
+                double expected = pair == null ? 0 : (1 << pair[1]) - (1 << pair[0]);
+                assertEquals("cell " + y + "," + x, expected, distances.getCell(y, x), 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.tum.opensim.somview;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests the updates of the nodes of a SOMMap
+ */
+public class SOMMapTest {
+
+    /**
+     * Creates a 3x3 map whose nodes lie on a grid with x and y in [0,2]
+     */
+    private static SOMMap createMap()
+    {
+        double[][][] map = new double[3][3][];
+        for (int y = 0; y < 3; y++)
+        {
+            for (int x = 0; x < 3; x++)
+                map[y][x] = new double[] {x, y};
+        }
+        return new SOMMap(2, "hexa", 3, 3, "gaussian", map);
+    }
+
+    private static void assertUpdated(SOMMap som) throws VectorException
+    {
+        som.updateNodes(new int[] {4}, new double[][] {{10, -5}});
+        assertArrayEquals(new double[] {10, -5}, som.getCodebook().getVector(4), 0);
+        assertArrayEquals(new double[] {2, 2}, som.getCodebook().getVector(8), 0);
+        assertEquals(4, som.findBMU(new double[] {9, -4}).getNode());
+    }
+
+    @Test
+    public void testUpdateDouble() throws VectorException
+    {
+        assertUpdated(createMap());
+    }
+
+    @Test
+    public void testUpdateShort() throws VectorException
+    {
+        SOMMap som = createMap();
+        som.setCodebook(new ShortCodebook(som.getCodebook()));
+        assertUpdated(som);
+    }
+
+    @Test
+    public void testUpdateByte() throws VectorException
+    {
+        SOMMap som = createMap();
+        som.setCodebook(new ByteCodebook(som.getCodebook()));
+        assertUpdated(som);
+    }
+}